@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package shared;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.hazelcast.jet.Util.entry;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A spliterator over the lines of a list of UTF-8 text files that a JDK
+ * parallel stream can split all the way down into parts of single files.
+ * The files can also be buffers that are already in memory.
+ * <p>
+ * {@code files.parallelStream().flatMap(Files::lines)} only parallelizes
+ * over the files: on JDK 8, {@code flatMap} consumes each inner stream
+ * sequentially, so the largest file determines the running time. This
+ * spliterator first splits the list of files into halves of about the same
+ * number of bytes and, once it's down to a single file, memory-maps it and
+ * splits its byte range in the middle, moved forward to the start of the next
+ * line. It decodes the lines only as it emits them. The size it estimates is
+ * the number of bytes left, which is proportional to the number of lines
+ * and is all the stream needs to balance the splits.
+ * <p>
+ * A file must not be larger than 2 GB.
+ */
+public final class BookLinesSpliterator<K, T> implements Spliterator<T> {
+
+    private static final int MIN_SPLIT_BYTES = 1 << 16;
+
+    private final List<K> keys;
+    private final IntFunction<ByteBuffer> openFn;
+    private final long[] sizes;
+    private final BiFunction<? super K, String, ? extends T> lineFn;
+    /** The files from {@code nextFile} up to {@code fileLimit} are yet to be opened. */
+    private final int fileLimit;
+    private int nextFile;
+
+    /** The current file, {@code null} if there isn't one. */
+    private ByteBuffer buffer;
+    private K key;
+    /** The lines that start before {@code end} are yet to be read. */
+    private int position;
+    private int end;
+    private byte[] lineBytes = new byte[256];
+
+    private BookLinesSpliterator(
+            List<K> keys, IntFunction<ByteBuffer> openFn, long[] sizes,
+            BiFunction<? super K, String, ? extends T> lineFn, int nextFile, int fileLimit
+    ) {
+        this.keys = keys;
+        this.openFn = openFn;
+        this.sizes = sizes;
+        this.lineFn = lineFn;
+        this.nextFile = nextFile;
+        this.fileLimit = fileLimit;
+    }
+
+    /**
+     * Returns a parallel stream of the lines of the given files.
+     */
+    @Nonnull
+    public static Stream<String> lines(@Nonnull List<Path> paths) {
+        return stream(paths, paths, (path, line) -> line);
+    }
+
+    /**
+     * Returns a parallel stream of the lines of the given in-memory files,
+     * from their positions to their limits. The stream doesn't change the
+     * positions of the buffers.
+     */
+    @Nonnull
+    public static Stream<String> linesInMemory(@Nonnull List<ByteBuffer> files) {
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = files.get(i).remaining();
+        }
+        return StreamSupport.stream(new BookLinesSpliterator<>(
+                Collections.nCopies(sizes.length, null), i -> files.get(i).slice(), sizes, (key, line) -> line,
+                0, sizes.length), true);
+    }
+
+    /**
+     * Returns a parallel stream of the lines of the given files, each one
+     * paired with the key of its file.
+     */
+    @Nonnull
+    public static <K> Stream<Entry<K, String>> linesByKey(@Nonnull Map<K, Path> paths) {
+        List<K> keys = new ArrayList<>(paths.keySet());
+        List<Path> pathList = new ArrayList<>();
+        for (K key : keys) {
+            pathList.add(paths.get(key));
+        }
+        return stream(keys, pathList, (key, line) -> entry(key, line));
+    }
+
+    private static <K, T> Stream<T> stream(
+            List<K> keys, List<Path> paths, BiFunction<? super K, String, ? extends T> lineFn
+    ) {
+        long[] sizes = new long[paths.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            try {
+                sizes[i] = Files.size(paths.get(i));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (sizes[i] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(paths.get(i) + " is larger than 2 GB");
+            }
+        }
+        IntFunction<ByteBuffer> openFn = i -> map(paths.get(i), sizes[i]);
+        return StreamSupport.stream(new BookLinesSpliterator<>(keys, openFn, sizes, lineFn, 0, sizes.length), true);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (buffer == null || position >= end) {
+            if (nextFile == fileLimit) {
+                buffer = null;
+                return false;
+            }
+            openFile(nextFile++);
+        }
+        int lineEnd = indexOfNewline(position);
+        int nextPosition = lineEnd + 1;
+        if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        action.accept(lineFn.apply(key, decode(position, lineEnd)));
+        position = nextPosition;
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int pendingFiles = fileLimit - nextFile;
+        long currentBytes = buffer == null ? 0 : Math.max(0, end - position);
+        if (pendingFiles > 1 || (pendingFiles == 1 && currentBytes > 0)) {
+            int mid = splitFileIndex(currentBytes);
+            BookLinesSpliterator<K, T> prefix = new BookLinesSpliterator<>(
+                    keys, openFn, sizes, lineFn, nextFile, mid);
+            prefix.setCurrent(buffer, key, position, end);
+            buffer = null;
+            nextFile = mid;
+            return prefix;
+        }
+        if (pendingFiles == 1) {
+            openFile(nextFile++);
+        }
+        if (buffer == null || end - position < MIN_SPLIT_BYTES) {
+            return null;
+        }
+        int split = indexOfNewline(position + (end - position) / 2) + 1;
+        if (split >= end) {
+            return null;
+        }
+        BookLinesSpliterator<K, T> prefix = new BookLinesSpliterator<>(
+                keys, openFn, sizes, lineFn, fileLimit, fileLimit);
+        prefix.setCurrent(buffer.duplicate(), key, position, split);
+        position = split;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = buffer == null ? 0 : Math.max(0, end - position);
+        for (int i = nextFile; i < fileLimit; i++) {
+            size += sizes[i];
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Returns the index of the first file that stays with this spliterator
+     * so that the prefix gets about half of the remaining bytes.
+     */
+    private int splitFileIndex(long currentBytes) {
+        long total = estimateSize();
+        long prefixBytes = currentBytes;
+        int mid = nextFile;
+        while (mid < fileLimit - 1 && prefixBytes + sizes[mid] <= total / 2) {
+            prefixBytes += sizes[mid];
+            mid++;
+        }
+        return currentBytes == 0 && mid == nextFile ? mid + 1 : mid;
+    }
+
+    private void setCurrent(ByteBuffer buffer, K key, int position, int end) {
+        this.buffer = buffer;
+        this.key = key;
+        this.position = position;
+        this.end = end;
+    }
+
+    private void openFile(int index) {
+        setCurrent(openFn.apply(index), keys.get(index), 0, (int) sizes[index]);
+    }
+
+    private static ByteBuffer map(Path path, long size) {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            return channel.map(READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map " + path, e);
+        }
+    }
+
+    /**
+     * Returns the index of the first newline at or after {@code from} or the
+     * buffer's limit if there isn't one.
+     */
+    private int indexOfNewline(int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private String decode(int from, int to) {
+        int len = to - from;
+        if (len > lineBytes.length) {
+            lineBytes = new byte[Math.max(len, 2 * lineBytes.length)];
+        }
+        for (int i = 0; i < len; i++) {
+            lineBytes[i] = buffer.get(from + i);
+        }
+        return new String(lineBytes, 0, len, UTF_8);
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package shared;
+
+import com.hazelcast.jet.JetException;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import static com.hazelcast.jet.Traversers.traverseIterable;
+import static com.hazelcast.jet.Util.entry;
+
+/**
+ * Counts keys into a hash table, but within a memory budget. It
+ * estimates the heap taken by its hash table and, when it goes over the
+ * budget, sorts the table by key and writes it to a temporary file as a
+ * <em>run</em> of {@code (key, count)} records in a compact binary form:
+ * the key as given by its {@link KeyFormat} and the count as a variable-length
+ * integer. When the processor completes, it merges all the runs, which are
+ * sorted, by reading them in parallel and summing up the counts of equal keys.
+ * If it didn't spill anything, it emits the in-memory table directly.
+ * <p>
+ * The processor is non-cooperative because it does blocking file I/O. It
+ * keeps all the runs open while merging, so the memory budget also controls
+ * the number of file handles: a larger budget means fewer, longer runs.
+ */
+public final class SpillingCountP<K> extends AbstractProcessor {
+
+    /** Estimated heap taken by a {@code HashMap} node, its table slot and the {@code long[1]} count. */
+    private static final int ENTRY_OVERHEAD_BYTES = 72;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final KeyFormat<K> format;
+    private final boolean combine;
+    private final long memoryBudget;
+    private final Map<K, long[]> counts = new HashMap<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<RunReader> readers = new ArrayList<>();
+    private long usedMemory;
+    private long spilledEntries;
+    private Traverser<Entry<K, Long>> resultTraverser;
+
+    private SpillingCountP(KeyFormat<K> format, boolean combine, long memoryBudget) {
+        this.format = format;
+        this.combine = combine;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns a supplier of processors that receive keys and emit {@code
+     * (key, localCount)} entries.
+     *
+     * @param memoryBudget the estimated heap size of the in-memory table, in
+     *                     bytes, that triggers spilling it to disk
+     */
+    @Nonnull
+    public static <K> SupplierEx<Processor> spillingAccumulateP(@Nonnull KeyFormat<K> format, long memoryBudget) {
+        checkBudget(memoryBudget);
+        return () -> new SpillingCountP<>(format, false, memoryBudget);
+    }
+
+    /**
+     * Returns a supplier of processors that receive {@code (key, count)}
+     * entries and emit {@code (key, totalCount)} entries.
+     *
+     * @param memoryBudget the estimated heap size of the in-memory table, in
+     *                     bytes, that triggers spilling it to disk
+     */
+    @Nonnull
+    public static <K> SupplierEx<Processor> spillingCombineP(@Nonnull KeyFormat<K> format, long memoryBudget) {
+        checkBudget(memoryBudget);
+        return () -> new SpillingCountP<>(format, true, memoryBudget);
+    }
+
+    private static void checkBudget(long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
+    }
+
+    @Override
+    public boolean isCooperative() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (combine) {
+            Entry<K, Long> e = (Entry<K, Long>) item;
+            add(e.getKey(), e.getValue());
+        } else {
+            add((K) item, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        if (resultTraverser == null) {
+            if (runs.isEmpty()) {
+                resultTraverser = traverseIterable(counts.entrySet()).map(e -> entry(e.getKey(), e.getValue()[0]));
+            } else {
+                if (!counts.isEmpty()) {
+                    spill();
+                }
+                getLogger().info(String.format("Spilled %,d entries in %d runs, merging them", spilledEntries,
+                        runs.size()));
+                resultTraverser = new RunMerger();
+            }
+        }
+        if (!emitFromTraverser(resultTraverser)) {
+            return false;
+        }
+        deleteRuns();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        deleteRuns();
+    }
+
+    private void add(K key, long delta) {
+        long[] count = counts.get(key);
+        if (count != null) {
+            count[0] += delta;
+            return;
+        }
+        counts.put(key, new long[] {delta});
+        usedMemory += ENTRY_OVERHEAD_BYTES + format.heapSize(key);
+        if (usedMemory > memoryBudget) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        List<Entry<K, long[]>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort(Entry.comparingByKey(format));
+        Path run;
+        try {
+            run = Files.createTempFile("word-counts-", ".run");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+                out.writeInt(sorted.size());
+                for (Entry<K, long[]> e : sorted) {
+                    format.write(out, e.getKey());
+                    writeVarLong(out, e.getValue()[0]);
+                }
+            }
+        } catch (IOException e) {
+            throw new JetException("Failed to spill " + sorted.size() + " entries", e);
+        }
+        spilledEntries += sorted.size();
+        counts.clear();
+        usedMemory = 0;
+    }
+
+    private void deleteRuns() {
+        for (RunReader reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                getLogger().warning("Failed to delete " + run, e);
+            }
+        }
+        runs.clear();
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Malformed variable-length integer");
+    }
+
+    /**
+     * Emits the entries of all the runs in key order, with the counts of
+     * equal keys summed up.
+     */
+    private final class RunMerger implements Traverser<Entry<K, Long>> {
+        private final PriorityQueue<RunReader> queue;
+
+        RunMerger() {
+            queue = new PriorityQueue<>(runs.size(), (r1, r2) -> format.compare(r1.key, r2.key));
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public Entry<K, Long> next() {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+                return null;
+            }
+            K key = reader.key;
+            long count = reader.count;
+            requeue(reader);
+            while (!queue.isEmpty() && format.compare(queue.peek().key, key) == 0) {
+                reader = queue.poll();
+                count += reader.count;
+                requeue(reader);
+            }
+            return entry(key, count);
+        }
+
+        private void requeue(RunReader reader) {
+            if (reader.advance()) {
+                queue.add(reader);
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a run one at a time.
+     */
+    private final class RunReader {
+        private final Path run;
+        private final DataInputStream in;
+        private int remaining;
+        private K key;
+        private long count;
+
+        RunReader(Path run) {
+            this.run = run;
+            try {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+                remaining = in.readInt();
+            } catch (IOException e) {
+                throw new JetException("Failed to open " + run, e);
+            }
+        }
+
+        boolean advance() {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            try {
+                key = format.read(in);
+                count = readVarLong(in);
+            } catch (IOException e) {
+                throw new JetException("Failed to read " + run, e);
+            }
+            remaining--;
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                getLogger().warning("Failed to close " + run, e);
+            }
+        }
+    }
+
+    /**
+     * Defines the order of the keys, their binary form in the runs and an
+     * estimate of their heap size.
+     */
+    public interface KeyFormat<K> extends Comparator<K>, Serializable {
+
+        /** Keys that are words. */
+        KeyFormat<String> WORDS = new WordFormat();
+
+        /** Keys that are {@code (docId, word)} entries. */
+        KeyFormat<Entry<Long, String>> DOC_WORDS = new DocWordFormat();
+
+        void write(@Nonnull DataOutput out, @Nonnull K key) throws IOException;
+
+        @Nonnull
+        K read(@Nonnull DataInput in) throws IOException;
+
+        /**
+         * Returns the estimated number of bytes the key takes on the heap.
+         */
+        int heapSize(@Nonnull K key);
+    }
+
+    private static final class WordFormat implements KeyFormat<String> {
+        @Override
+        public int compare(String w1, String w2) {
+            return w1.compareTo(w2);
+        }
+
+        @Override
+        public void write(@Nonnull DataOutput out, @Nonnull String word) throws IOException {
+            out.writeUTF(word);
+        }
+
+        @Nonnull @Override
+        public String read(@Nonnull DataInput in) throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        public int heapSize(@Nonnull String word) {
+            return 40 + 2 * word.length();
+        }
+    }
+
+    private static final class DocWordFormat implements KeyFormat<Entry<Long, String>> {
+        @Override
+        public int compare(Entry<Long, String> e1, Entry<Long, String> e2) {
+            int byDoc = e1.getKey().compareTo(e2.getKey());
+            return byDoc != 0 ? byDoc : e1.getValue().compareTo(e2.getValue());
+        }
+
+        @Override
+        public void write(@Nonnull DataOutput out, @Nonnull Entry<Long, String> docWord) throws IOException {
+            writeVarLong(out, docWord.getKey());
+            out.writeUTF(docWord.getValue());
+        }
+
+        @Nonnull @Override
+        public Entry<Long, String> read(@Nonnull DataInput in) throws IOException {
+            long docId = readVarLong(in);
+            return entry(docId, in.readUTF());
+        }
+
+        @Override
+        public int heapSize(@Nonnull Entry<Long, String> docWord) {
+            return 32 + 16 + 40 + 2 * docWord.getValue().length();
+        }
+    }
+}
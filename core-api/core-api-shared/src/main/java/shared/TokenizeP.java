@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package shared;
+
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A processor that receives lines of text ({@code CharSequence} items) and
+ * emits the lowercase words they contain. For ASCII text it is a drop-in
+ * replacement for
+ * <pre>
+ * flatMapP((String line) -> traverseArray(delimiter.split(line.toLowerCase()))
+ *         .filter(word -> !word.isEmpty()))
+ * </pre>
+ * where {@code delimiter} is {@code \W+}. See {@link WordTokenizer} for the
+ * details.
+ */
+public class TokenizeP extends AbstractProcessor {
+
+    private final WordTokenizer tokenizer = new WordTokenizer();
+    private final FlatMapper<CharSequence, String> flatMapper = flatMapper(tokenizer::reset);
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        return flatMapper.tryProcess((CharSequence) item);
+    }
+}
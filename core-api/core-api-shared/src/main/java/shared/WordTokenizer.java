@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package shared;
+
+import com.hazelcast.jet.Traverser;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits a line of text into lowercase words. For ASCII text the result is
+ * the same as that of {@code Pattern.compile("\\W+").split(line.toLowerCase())}
+ * with the empty strings filtered out, but the tokenizer scans the characters
+ * directly instead of running a regex matcher, folds ASCII case through a
+ * lookup table and reuses its internal buffer from line to line.
+ * <p>
+ * As a {@link Traverser} it emits each word as a new {@code String}. A
+ * caller that consumes the words on the spot, such as an accumulator fused
+ * into the tokenizing processor, can instead use {@link #advance()} and
+ * {@link #token()} (or {@link #forEachToken}) and get a reusable {@code
+ * CharSequence} view that doesn't allocate anything.
+ * <p>
+ * Just like {@code \W} without the {@code UNICODE_CHARACTER_CLASS} flag,
+ * the tokenizer treats all non-ASCII characters as delimiters. Unlike the
+ * regex split, it does so before lowercasing, so the few non-ASCII
+ * characters whose lowercase form contains ASCII letters, such as U+212A
+ * KELVIN SIGN or U+0130, are delimiters too instead of becoming part of a
+ * word.
+ * <p>
+ * Instances are not thread-safe, each processor must use its own.
+ */
+public final class WordTokenizer implements Traverser<String> {
+
+    private static final int ASCII_LIMIT = 128;
+    private static final int INITIAL_BUFFER_SIZE = 64;
+
+    /**
+     * Maps an ASCII word character to its lowercase form and any other
+     * ASCII character to zero.
+     */
+    private static final char[] FOLDED = new char[ASCII_LIMIT];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            FOLDED[c] = c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            FOLDED[c] = c;
+            FOLDED[Character.toUpperCase(c)] = c;
+        }
+        FOLDED['_'] = '_';
+    }
+
+    private final Token token = new Token();
+    private char[] buf = new char[INITIAL_BUFFER_SIZE];
+    private int tokenLength;
+    private CharSequence line;
+    private int position;
+
+    /**
+     * Starts tokenizing the given line. Returns {@code this} so that it can
+     * be used directly as the traverser of the line's words.
+     */
+    @Nonnull
+    public WordTokenizer reset(@Nonnull CharSequence line) {
+        this.line = line;
+        this.position = 0;
+        this.tokenLength = 0;
+        return this;
+    }
+
+    /**
+     * Moves to the next word in the current line. Returns {@code false} when
+     * the line is exhausted.
+     */
+    public boolean advance() {
+        final CharSequence line = this.line;
+        if (line == null) {
+            return false;
+        }
+        final int end = line.length();
+        int i = position;
+        while (i < end && fold(line.charAt(i)) == 0) {
+            i++;
+        }
+        int len = 0;
+        for (; i < end; i++) {
+            char c = fold(line.charAt(i));
+            if (c == 0) {
+                break;
+            }
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * len);
+            }
+            buf[len++] = c;
+        }
+        position = i;
+        tokenLength = len;
+        if (len == 0) {
+            this.line = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a view of the current word. The view is reused: its contents
+     * change on the next call to {@link #advance()}, so the caller must copy
+     * it (e.g., call {@code toString()}) if it wants to retain it.
+     */
+    @Nonnull
+    public CharSequence token() {
+        return token;
+    }
+
+    /**
+     * Returns the index in the current line at which the current word
+     * starts. The word takes up the next {@code token().length()} characters.
+     */
+    public int tokenStart() {
+        return position - tokenLength;
+    }
+
+    /**
+     * Returns the next word as a new {@code String} or {@code null} when the
+     * current line is exhausted.
+     */
+    @Override
+    public String next() {
+        return advance() ? new String(buf, 0, tokenLength) : null;
+    }
+
+    /**
+     * Tokenizes the given line and passes the reusable view of each word to
+     * the given action.
+     */
+    public void forEachToken(@Nonnull CharSequence line, @Nonnull Consumer<? super CharSequence> action) {
+        reset(line);
+        while (advance()) {
+            action.accept(token);
+        }
+    }
+
+    /**
+     * Returns the lowercase form of the given character if it is a word
+     * character and zero otherwise.
+     */
+    public static char fold(char c) {
+        return c < ASCII_LIMIT ? FOLDED[c] : 0;
+    }
+
+    private final class Token implements CharSequence {
+        @Override
+        public int length() {
+            return tokenLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= tokenLength) {
+                throw new IndexOutOfBoundsException("index=" + index + ", length=" + tokenLength);
+            }
+            return buf[index];
+        }
+
+        @Nonnull @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Nonnull @Override
+        public String toString() {
+            return new String(buf, 0, tokenLength);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package shared;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.PartitionService;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.ProcessorMetaSupplier;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A sink that writes {@code Map.Entry} items into a Hazelcast {@code IMap}
+ * in batches. It keeps a separate buffer for each partition and writes a
+ * buffer with a single {@code putAll} call, which the partition's owner
+ * executes as one operation. A buffer is written when it holds {@code
+ * maxBatchSize} entries; all the buffers are written when {@code
+ * maxDelayMillis} have passed since the last time they were and when the
+ * input is complete.
+ * <p>
+ * When it completes, the processor logs how many entries it wrote, in how
+ * many flushes, and the throughput while flushing.
+ * <p>
+ * {@code putAll} blocks, so the processor is non-cooperative.
+ */
+public final class WriteMapBatchedP extends AbstractProcessor {
+
+    private final String mapName;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private IMap<Object, Object> map;
+    private PartitionService partitionService;
+    private Map<Object, Object>[] buffers;
+    private long lastFlushAllTime;
+
+    private long entryCount;
+    private long flushCount;
+    private long flushNanos;
+
+    private WriteMapBatchedP(String mapName, int maxBatchSize, long maxDelayMillis) {
+        this.mapName = mapName;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    /**
+     * Returns a meta-supplier of processors that write the entries they
+     * receive into the {@code IMap} with the given name.
+     *
+     * @param maxBatchSize the number of entries for a partition that
+     *                     triggers writing them
+     * @param maxDelayMillis the longest time an entry waits in a buffer
+     *                       while more entries arrive
+     */
+    @Nonnull
+    public static ProcessorMetaSupplier writeMapBatchedP(
+            @Nonnull String mapName, int maxBatchSize, long maxDelayMillis
+    ) {
+        if (maxBatchSize <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException(
+                    "maxBatchSize=" + maxBatchSize + ", maxDelayMillis=" + maxDelayMillis);
+        }
+        return ProcessorMetaSupplier.of(() -> new WriteMapBatchedP(mapName, maxBatchSize, maxDelayMillis));
+    }
+
+    @Override
+    public boolean isCooperative() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void init(@Nonnull Context context) {
+        map = context.jetInstance().getMap(mapName);
+        partitionService = context.jetInstance().getHazelcastInstance().getPartitionService();
+        buffers = new Map[partitionService.getPartitions().size()];
+        lastFlushAllTime = System.nanoTime();
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        Entry<?, ?> e = (Entry<?, ?>) item;
+        int partitionId = partitionService.getPartition(e.getKey()).getPartitionId();
+        Map<Object, Object> buffer = buffers[partitionId];
+        if (buffer == null) {
+            buffer = new HashMap<>();
+            buffers[partitionId] = buffer;
+        }
+        buffer.put(e.getKey(), e.getValue());
+        if (buffer.size() >= maxBatchSize) {
+            flush(buffer);
+        }
+        return tryProcess();
+    }
+
+    @Override
+    public boolean tryProcess() {
+        if (System.nanoTime() - lastFlushAllTime >= maxDelayNanos) {
+            flushAll();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        flushAll();
+        getLogger().info(String.format("Wrote %,d entries to '%s' in %,d flushes, %,.0f entries/s while flushing",
+                entryCount, mapName, flushCount, entryCount / Math.max(1e-9, flushNanos / 1e9)));
+        return true;
+    }
+
+    private void flushAll() {
+        for (Map<Object, Object> buffer : buffers) {
+            if (buffer != null && !buffer.isEmpty()) {
+                flush(buffer);
+            }
+        }
+        lastFlushAllTime = System.nanoTime();
+    }
+
+    private void flush(Map<Object, Object> buffer) {
+        long start = System.nanoTime();
+        map.putAll(buffer);
+        flushNanos += System.nanoTime() - start;
+        entryCount += buffer.size();
+        flushCount++;
+        buffer.clear();
+    }
+}
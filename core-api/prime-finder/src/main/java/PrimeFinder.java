@@ -36,7 +36,6 @@ import java.util.stream.IntStream;
 
 import static com.hazelcast.jet.Traversers.traverseStream;
 import static com.hazelcast.jet.core.Edge.between;
-import static com.hazelcast.jet.core.processor.Processors.filterP;
 import static com.hazelcast.jet.core.processor.SinkProcessors.writeListP;
 import static java.lang.Runtime.getRuntime;
 import static java.util.stream.Collectors.toList;
@@ -53,9 +52,12 @@ import static java.util.stream.IntStream.range;
  * the numbers with a specific remainder when divided by the total number of
  * processors across all the nodes.
  * <p>
- * The {@code filter-primes} vertex is a simple filtering processor, which
- * checks the incoming number for primeness, and emits if the number is prime.
- * The results are then written into a Hazelcast list.
+ * Each processor also checks its numbers for primeness and only emits the
+ * primes, which are then written into a Hazelcast list. The primality check
+ * used to be a separate {@code filter-primes} vertex; since it's a stateless
+ * filter connected to the generator with a local edge, fusing it into the
+ * generator gives the same result without a queue handoff for each of the
+ * generated numbers.
  *
  */
 public class PrimeFinder {
@@ -73,12 +75,10 @@ public class PrimeFinder {
             DAG dag = new DAG();
 
             final int limit = 15_485_864;
-            Vertex generator = dag.newVertex("number-generator", new GenerateNumbersMetaSupplier(limit));
-            Vertex primeChecker = dag.newVertex("filter-primes", filterP(PrimeFinder::isPrime));
+            Vertex generator = dag.newVertex("prime-generator", new GenerateNumbersMetaSupplier(limit));
             Vertex writer = dag.newVertex("writer", writeListP("primes"));
 
-            dag.edge(between(generator, primeChecker));
-            dag.edge(between(primeChecker, writer));
+            dag.edge(between(generator, writer));
 
             jet.newJob(dag).join();
 
@@ -133,7 +133,9 @@ public class PrimeFinder {
                 int end = (i + 1) * localParallelism;
                 int mod = totalParallelism;
                 map.put(address, count -> range(start, end)
-                        .mapToObj(index -> new GenerateNumbersP(range(0, limit).filter(f -> f % mod == index)))
+                        .mapToObj(index -> new GenerateNumbersP(range(0, limit)
+                                .filter(f -> f % mod == index)
+                                .filter(PrimeFinder::isPrime)))
                         .collect(toList())
                 );
             }
@@ -26,7 +26,6 @@ import com.hazelcast.jet.core.processor.SinkProcessors;
 import com.hazelcast.jet.datamodel.KeyedWindowResult;
 import com.hazelcast.jet.function.FunctionEx;
 import com.hazelcast.jet.function.ToLongFunctionEx;
-import com.hazelcast.jet.pipeline.ContextFactory;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
@@ -38,7 +37,6 @@ import static com.hazelcast.jet.aggregate.AggregateOperations.counting;
 import static com.hazelcast.jet.core.Edge.between;
 import static com.hazelcast.jet.core.Partitioner.HASH_CODE;
 import static com.hazelcast.jet.core.SlidingWindowPolicy.slidingWinPolicy;
-import static com.hazelcast.jet.core.processor.Processors.mapUsingContextP;
 import static com.hazelcast.jet.function.Functions.entryKey;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -77,16 +75,14 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  *                    |
  *          (ticker, time, count)
  *                    V
- *            ---------------
- *           | format-output |
- *            ---------------
- *                    |
- *          "time ticker count"
- *                    V
  *                 ------
  *                | sink |
  *                 ------
  * </pre>
+ * The {@code sink} formats each window result as a {@code "time ticker
+ * count"} line itself instead of a separate {@code format-output} vertex
+ * doing it. This fuses the stateless formatting step into the sink and saves
+ * a queue handoff per result.
  */
 public class StockExchangeCoreApi {
 
@@ -95,6 +91,7 @@ public class StockExchangeCoreApi {
     private static final int SLIDE_STEP_MILLIS = 10;
     private static final int TRADES_PER_SECOND = 4_000;
     private static final int JOB_DURATION = 15;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
 
     public static void main(String[] args) throws InterruptedException {
         System.setProperty("hazelcast.logging.type", "log4j");
@@ -126,16 +123,8 @@ public class StockExchangeCoreApi {
                 ));
         Vertex slidingStage2 = dag.newVertex("sliding-stage-2",
                 Processors.combineToSlidingWindowP(winPolicy, counting(), KeyedWindowResult::new));
-        Vertex formatOutput = dag.newVertex("format-output", mapUsingContextP(
-                ContextFactory.withCreateFn(x -> DateTimeFormatter.ofPattern("HH:mm:ss.SSS")),
-                (DateTimeFormatter timeFormat, KeyedWindowResult<String, Long> wr) ->
-                        String.format("%s %5s %4d",
-                                timeFormat.format(Instant.ofEpochMilli(wr.end())
-                                                         .atZone(ZoneId.systemDefault())),
-                                wr.getKey(), wr.getValue())
-        ));
-        Vertex sink = dag.newVertex("sink",
-                SinkProcessors.writeFileP(OUTPUT_DIR_NAME, Object::toString, StandardCharsets.UTF_8, false));
+        Vertex sink = dag.newVertex("sink", SinkProcessors.writeFileP(
+                OUTPUT_DIR_NAME, StockExchangeCoreApi::formatOutput, StandardCharsets.UTF_8, false));
 
         tradeSource.localParallelism(1);
 
@@ -145,9 +134,13 @@ public class StockExchangeCoreApi {
                 .edge(between(slidingStage1, slidingStage2)
                         .partitioned(entryKey(), HASH_CODE)
                         .distributed())
-                .edge(between(slidingStage2, formatOutput)
-                        .isolated())
-                .edge(between(formatOutput, sink));
+                .edge(between(slidingStage2, sink));
+    }
+
+    private static String formatOutput(KeyedWindowResult<String, Long> wr) {
+        return String.format("%s %5s %4d",
+                TIME_FORMAT.format(Instant.ofEpochMilli(wr.end()).atZone(ZoneId.systemDefault())),
+                wr.getKey(), wr.getValue());
     }
 
 }
@@ -18,14 +18,12 @@ import com.hazelcast.jet.Jet;
 import com.hazelcast.jet.JetInstance;
 import com.hazelcast.jet.Job;
 import com.hazelcast.jet.core.DAG;
-import com.hazelcast.jet.core.Processor;
 import com.hazelcast.jet.core.SlidingWindowPolicy;
 import com.hazelcast.jet.core.TimestampKind;
 import com.hazelcast.jet.core.Vertex;
 import com.hazelcast.jet.core.processor.Processors;
 import com.hazelcast.jet.datamodel.KeyedWindowResult;
 import com.hazelcast.jet.function.FunctionEx;
-import com.hazelcast.jet.function.SupplierEx;
 import com.hazelcast.jet.function.ToLongFunctionEx;
 
 import java.nio.charset.StandardCharsets;
@@ -81,16 +79,14 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  *                    |
  *          (ticker, time, count)
  *                    V
- *            ---------------
- *           | format-output |
- *            ---------------
- *                    |
- *          "time ticker count"
- *                    V
  *                 ------
  *                | sink |
  *                 ------
  * </pre>
+ * The {@code sink} formats each window result as a {@code "time ticker
+ * count"} line itself instead of a separate {@code format-output} vertex
+ * doing it. This fuses the stateless formatting step into the sink and saves
+ * a queue handoff per result.
  */
 public class StockExchangeSingleStage {
 
@@ -99,6 +95,7 @@ public class StockExchangeSingleStage {
     private static final int SLIDE_STEP_MILLIS = 10;
     private static final int TRADES_PER_SECOND = 4_000_000;
     private static final int JOB_DURATION = 10;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
 
     public static void main(String[] args) throws InterruptedException {
         System.setProperty("hazelcast.logging.type", "log4j");
@@ -130,9 +127,8 @@ public class StockExchangeSingleStage {
                         0,
                         counting(),
                         KeyedWindowResult::new));
-        Vertex formatOutput = dag.newVertex("format-output", formatOutput());
         Vertex sink = dag.newVertex("sink",
-                writeFileP(OUTPUT_DIR_NAME, Object::toString, StandardCharsets.UTF_8, false));
+                writeFileP(OUTPUT_DIR_NAME, StockExchangeSingleStage::formatOutput, StandardCharsets.UTF_8, false));
 
         streamTrades.localParallelism(1);
 
@@ -140,20 +136,15 @@ public class StockExchangeSingleStage {
                 .edge(between(streamTrades, slidingWindow)
                         .partitioned(Trade::getTicker, HASH_CODE)
                         .distributed())
-                .edge(between(slidingWindow, formatOutput).isolated())
-                .edge(between(formatOutput, sink));
+                .edge(between(slidingWindow, sink));
     }
 
-    private static SupplierEx<Processor> formatOutput() {
-        return () -> {
-            // If DateTimeFormatter was serializable, it could be created in
-            // buildDag() and simply captured by the serializable lambda below. Since
-            // it isn't, we need this long-hand approach that explicitly creates the
-            // formatter at the use site instead of having it implicitly deserialized.
-            DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
-            return Processors.mapP((KeyedWindowResult<String, Long> kwr) -> String.format("%s %5s %4d",
-                    timeFormat.format(Instant.ofEpochMilli(kwr.end()).atZone(ZoneId.systemDefault())),
-                    kwr.key(), kwr.result())).get();
-        };
+    private static String formatOutput(KeyedWindowResult<String, Long> kwr) {
+        // DateTimeFormatter isn't serializable, so the sink's toString function
+        // refers to this static method and the formatter is created on each
+        // member when it loads the class, instead of being captured and shipped.
+        return String.format("%s %5s %4d",
+                TIME_FORMAT.format(Instant.ofEpochMilli(kwr.end()).atZone(ZoneId.systemDefault())),
+                kwr.key(), kwr.result());
     }
 }
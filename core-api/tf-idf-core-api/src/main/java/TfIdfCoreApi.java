@@ -14,6 +14,9 @@
  * limitations under the License.
  */
 
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
 import com.hazelcast.core.IMap;
 import com.hazelcast.jet.Jet;
 import com.hazelcast.jet.JetInstance;
@@ -25,10 +28,13 @@ import com.hazelcast.jet.config.JetConfig;
 import com.hazelcast.jet.core.AbstractProcessor;
 import com.hazelcast.jet.core.DAG;
 import com.hazelcast.jet.core.Vertex;
-import com.hazelcast.jet.core.processor.Processors;
-import com.hazelcast.jet.core.processor.SinkProcessors;
 import com.hazelcast.jet.function.FunctionEx;
 import com.hazelcast.jet.pipeline.ContextFactory;
+import com.hazelcast.query.Predicate;
+import support.CachingSearcher;
+import support.DistributedSearch;
+import support.PostingList;
+import support.PostingListSerializer;
 import support.SearchGui;
 
 import javax.annotation.Nonnull;
@@ -38,7 +44,6 @@ import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -58,6 +63,7 @@ import static com.hazelcast.jet.core.Edge.from;
 import static com.hazelcast.jet.core.Partitioner.HASH_CODE;
 import static com.hazelcast.jet.core.processor.Processors.aggregateByKeyP;
 import static com.hazelcast.jet.core.processor.Processors.flatMapUsingContextP;
+import static com.hazelcast.jet.core.processor.SinkProcessors.mergeMapP;
 import static com.hazelcast.jet.core.processor.SourceProcessors.readMapP;
 import static com.hazelcast.jet.function.Functions.wholeItem;
 import static java.lang.Runtime.getRuntime;
@@ -66,6 +72,9 @@ import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
+import static shared.SpillingCountP.KeyFormat.DOC_WORDS;
+import static shared.SpillingCountP.spillingAccumulateP;
+import static shared.WriteMapBatchedP.writeMapBatchedP;
 
 /**
  * Builds, for a given set of text documents, an <em>inverted index</em> that
@@ -97,52 +106,71 @@ import static java.util.stream.Collectors.toSet;
  * </li></ul>
  * When the user enters a search phrase, first the stopwords are crossed out,
  * then each remaining search term is looked up in the inverted index, resulting
- * in a set of documents for each search term. An intersection is taken of all
- * these sets, which gives us only the documents that contain all the search
- * terms. For each combination of document and search term there will be an
+ * in a set of documents for each search term. By default an intersection is
+ * taken of all these sets, which gives us only the documents that contain all
+ * the search terms; unchecking "Match all terms" takes their union instead.
+ * For each combination of document and search term there will be an
  * associated TF-IDF score. These scores are summed per document to retrieve
- * the total score of each document. The list of documents sorted by score
- * (descending) is presented to the user as the search result.
+ * the total score of each document. The documents with the highest scores,
+ * sorted by score (descending), are presented to the user as the search
+ * result. The intersection gallops over the skip pointers in the posting
+ * lists and the union uses the WAND algorithm, which skips the documents that
+ * cannot make it into the result, see {@link support.TopKSearch}. The search
+ * runs on the cluster members that own the search terms and only the ranked
+ * document IDs come back to the GUI, see {@link DistributedSearch}. The GUI
+ * keeps the results of the recent searches in a {@link CachingSearcher},
+ * which discards them whenever the index changes.
+ * <p>
+ * The inverted index doesn't store the TF-IDF scores, only the TF of each
+ * document in the posting list of each word; the size of the list is the
+ * word's DF. Adding a document changes {@code D} and with it the IDF of
+ * every word, which would outdate all the stored scores, so the search
+ * computes the IDF at query time instead. This way new documents can be
+ * indexed without touching the postings of the existing ones: the program
+ * first indexes all the books but the last one, then adds the last one to
+ * the index with another run of the same DAG that only reads the new
+ * document.
  * <p>
  * This is the DAG used to build the index:
  * <pre>
- *             ------------              -----------------
- *            | doc-source |            | stopword-source |
- *             ------------              -----------------
- *             /           \                     |
- *            /       (docId, docName)           |
- *           /                \                  |
- *          /                  V         (set-of-stopwords)
- *  (docId, docName)         -----------         |
- *         |                | doc-lines |        |
- *         |                 -----------         |
- *         |                     |               |
- *         |                (docId, line)        |
- *    -----------                |               |
- *   | doc-count |               V               |
- *    -----------            ----------          |
- *         |                | tokenize | <------/
- *         |                 ----------
- *         |                     |
- *      (count)            (docId, word)
- *         |                     |
- *         |                     V
- *         |                   ----
- *         |                  | tf |
- *         |                   ----
- *         |                     |
- *         |           ((docId, word), count)
- *         |                     |
- *         |      --------       |
- *          \--> | tf-idf | <---/
- *                --------
- *                   |
- *    (word, list(docId, tfidf-score))
- *                   |
- *                   V
- *                ------
- *               | sink |
- *                ------
+ *      ------------        -----------------
+ *     | doc-source |      | stopword-source |
+ *      ------------        -----------------
+ *           |                      |
+ *   (docId, docName)               |
+ *           |                      |
+ *           V              (set-of-stopwords)
+ *      -----------                 |
+ *     | doc-lines |                |
+ *      -----------                 |
+ *           |                      |
+ *      (docId, line)               |
+ *           |                      |
+ *           V                      |
+ *       ----------                 |
+ *      | tokenize | <-------------/
+ *       ----------
+ *           |
+ *     (docId, word)
+ *           |
+ *           V
+ *         ----
+ *        | tf |
+ *         ----
+ *           |
+ * ((docId, word), count)
+ *           |
+ *           V
+ *      ----------
+ *     | postings |
+ *      ----------
+ *           |
+ * (word, posting-list(docId, count))
+ *           |
+ *           V
+ *        ------
+ *       | sink |
+ *        ------
  * </pre>
  * This is how the DAG works:
  * <ul><li>
@@ -154,6 +182,10 @@ import static java.util.stream.Collectors.toSet;
  *     {@code doc-source} emits {@code (docId, docName)} pairs. On each cluster
  *     member this vertex observes only the map entries stored locally on that
  *     member. Therefore each member sees a unique subset of all the documents.
+ *     It filters the entries with a predicate that only lets through the
+ *     documents with an ID above the highest one already indexed. The member
+ *     evaluates the predicate as it reads the map, so the old documents never
+ *     leave the map's partitions.
  * </li><li>
  *     The {@code sample-data} module also contains the file {@code
  *     stopwords.txt} with one stopword per line. The {@code stopword-source}
@@ -162,16 +194,6 @@ import static java.util.stream.Collectors.toSet;
  *     processors of the {@code tokenize} vertex use the same instance of the
  *     set.
  * </li><li>
- *     {@code doc-source} also sends its output over a <em>distributed broadcast</em>
- *     edge to {@code doc-count}, which has a local parallelism of one. This
- *     means that there is one processor for {@code doc-count} on each member,
- *     and each processor observes all the items coming out of {@code
- *     doc-source}.
- * </li><li>
- *     {@code doc-count} is a simple vertex that counts the number of tuples
- *     it has received. Given the properties of its inbound edge, on each
- *     member its processor will emit the total document count.
- * </li><li>
  *     {@code doc-lines} reads each document and emits its lines of text as
  *     {@code (docId, line)} pairs. This is an example where a <em>
  *     non-cooperative</em> processor makes sense because it does file I/O. For
@@ -191,21 +213,34 @@ import static java.util.stream.Collectors.toSet;
  *     value calculated within the context of a single document and the reading
  *     of any given document is already localized to a single member.
  * </li><li>
- *     {@code tf} sends its results to {@code tf-idf} over a <em>distributed
+ *     {@code tf} keeps a count for every distinct {@code (docId, word)} pair
+ *     on the heap. If you run the sample with {@code
+ *     -DspillBudgetMb=<megabytes>}, it uses {@link shared.SpillingCountP}
+ *     instead, which writes the counts to sorted temporary files whenever they
+ *     take more than the given budget and merges the files at the end.
+ * </li><li>
+ *     {@code tf} sends its results to {@code postings} over a <em>distributed
  *     partitioned</em> edge with {@code word} being the partitioning key. This
  *     achieves localization by word: every word is assigned its unique
  *     processor instance in the whole cluster so this processor will observe
  *     all TF entries related to the word.
  * </li><li>
- *     {@code doc-count} sends its count item over a local broadcast edge to
- *     {@code tf-idf} so all the parallel {@code tf-idf} instances get the
- *     document count.
+ *     {@code postings} builds the final product of this DAG: the inverted
+ *     index of all words in the new documents. The value in the index is a
+ *     {@link PostingList} of {@code (docId, count)} pairs, which keeps them in
+ *     a few bytes each: the sorted document IDs as variable-length gaps, each
+ *     followed by the variable-length count. Hazelcast stores it with the
+ *     {@link PostingListSerializer}, registered in the member config. {@code
+ *     postings} emits the entries for this index and the final {@code sink}
+ *     vertex stores them in the map. The map's name is "{@value
+ *     #INVERTED_INDEX}".
  * </li><li>
- *     {@code tf-idf} builds the final product of this DAG: the inverted index
- *     of all words in all documents. The value in the index is a list of
- *     {@code (docId, tfidfScore)} pairs. {@code tf-idf} emits the entries for
- *     this index and the final {@code sink} vertex inserts them into the map.
- *     The map's name is "{@value #INVERTED_INDEX}".
+ *     When the index is empty, the sink buffers the entries for each
+ *     partition and inserts each buffer with a single {@code putAll}, see
+ *     {@link shared.WriteMapBatchedP}. When adding documents to an
+ *     existing index, it {@link PostingList#merge merges} each new posting
+ *     list into the word's existing one instead, with an entry processor that
+ *     runs on the member that owns the word.
  * </li></ul>
  * After using Jet to build the inverted index, this program opens a
  * minimalist GUI window which you can use to perform searches and review
@@ -216,8 +251,15 @@ public class TfIdfCoreApi {
     private static final Pattern DELIMITER = Pattern.compile("\\W+");
     private static final String DOCID_NAME = "docId_name";
     private static final String INVERTED_INDEX = "inverted-index";
+    private static final String INDEX_VERSION = "inverted-index-version";
+    private static final int QUERY_CACHE_SIZE = 1024;
+    private static final int SINK_BATCH_SIZE = 1024;
+    private static final long SINK_MAX_DELAY_MILLIS = 100;
+    private static final long SPILL_BUDGET_BYTES = Long.getLong("spillBudgetMb", 0) << 20;
 
     private JetInstance jet;
+    private long lastDocId;
+    private long indexedUpTo;
 
     public static void main(String[] args) {
         System.setProperty("hazelcast.logging.type", "log4j");
@@ -231,40 +273,67 @@ public class TfIdfCoreApi {
 
     private void go() {
         setup();
-        buildInvertedIndex();
-        new SearchGui(jet.getMap(DOCID_NAME), jet.getMap(INVERTED_INDEX), docLines("stopwords.txt").collect(toSet()));
+        List<String> bookNames = bookNames();
+        System.out.println("These books will be indexed:");
+        addDocuments(bookNames.subList(0, bookNames.size() - 1));
+        indexNewDocuments();
+        System.out.println("This book will be added to the index:");
+        addDocuments(bookNames.subList(bookNames.size() - 1, bookNames.size()));
+        indexNewDocuments();
+        HazelcastInstance hz = jet.getHazelcastInstance();
+        IAtomicLong indexVersion = hz.getAtomicLong(INDEX_VERSION);
+        CachingSearcher search = new CachingSearcher(
+                new DistributedSearch(hz, INVERTED_INDEX, DOCID_NAME), QUERY_CACHE_SIZE, indexVersion::get);
+        getRuntime().addShutdownHook(new Thread(() -> System.out.println("Query cache: " + search)));
+        new SearchGui(jet.getMap(DOCID_NAME), search, docLines("stopwords.txt").collect(toSet()));
     }
 
     private void setup() {
         JetConfig cfg = new JetConfig();
         cfg.setInstanceConfig(new InstanceConfig().setCooperativeThreadCount(
                 Math.max(1, getRuntime().availableProcessors() / 2)));
+        cfg.getHazelcastConfig().getSerializationConfig().addSerializerConfig(new SerializerConfig()
+                .setTypeClass(PostingList.class)
+                .setImplementation(new PostingListSerializer()));
         System.out.println("Creating Jet instance 1");
         jet = Jet.newJetInstance(cfg);
         System.out.println("Creating Jet instance 2");
         Jet.newJetInstance(cfg);
-        System.out.println("These books will be indexed:");
-        buildDocumentInventory();
     }
 
-    private void buildInvertedIndex() {
-        Job job = jet.newJob(createDag());
+    /**
+     * Indexes the documents added to the "{@value #DOCID_NAME}" map since the
+     * last call and merges their postings into the inverted index. Then it
+     * increments the "{@value #INDEX_VERSION}" counter, which invalidates the
+     * cached search results.
+     */
+    private void indexNewDocuments() {
+        long upTo = lastDocId;
+        Job job = jet.newJob(createDag(indexedUpTo));
         long start = System.nanoTime();
         job.join();
-        System.out.println("Indexing took " + NANOSECONDS.toMillis(System.nanoTime() - start) + " milliseconds.");
+        System.out.println("Indexing documents " + (indexedUpTo + 1) + ".." + upTo + " took "
+                + NANOSECONDS.toMillis(System.nanoTime() - start) + " milliseconds.");
+        indexedUpTo = upTo;
+        jet.getHazelcastInstance().getAtomicLong(INDEX_VERSION).incrementAndGet();
     }
 
-    private static DAG createDag() {
+    /**
+     * Creates the DAG that indexes the documents with an ID greater than the
+     * given one. If there are no documents in the index yet, it writes the
+     * posting lists directly, otherwise it merges them into the existing
+     * ones.
+     */
+    private static DAG createDag(long afterDocId) {
         FunctionEx<Entry<Entry<?, String>, ?>, String> byWord = item -> item.getKey().getValue();
 
         DAG dag = new DAG();
 
         // nil -> Set<String> stopwords
         Vertex stopwordSource = dag.newVertex("stopword-source", StopwordsP::new);
-        // nil -> (docId, docName)
-        Vertex docSource = dag.newVertex("doc-source", readMapP(DOCID_NAME));
-        // item -> count of items
-        Vertex docCount = dag.newVertex("doc-count", Processors.aggregateP(counting()));
+        // nil -> (docId, docName) of the documents not yet in the index
+        Predicate<Long, String> isNew = e -> e.getKey() > afterDocId;
+        Vertex docSource = dag.newVertex("doc-source", readMapP(DOCID_NAME, isNew, FunctionEx.identity()));
         // (docId, docName) -> many (docId, line)
         Vertex docLines = dag.newVertex("doc-lines",
                 // we use flatMapUsingContextP for the sake of being able to mark it as non-cooperative
@@ -276,38 +345,47 @@ public class TfIdfCoreApi {
         // 0: stopword set, 1: (docId, line) -> many (docId, word)
         Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
         // many (docId, word) -> ((docId, word), count)
-        Vertex tf = dag.newVertex("tf", aggregateByKeyP(singletonList(wholeItem()), counting(), Util::entry));
-        // 0: doc-count, 1: ((docId, word), count) -> (word, list of (docId, tf-idf-score))
-        Vertex tfidf = dag.newVertex("tf-idf", TfIdfP::new);
-        Vertex sink = dag.newVertex("sink", SinkProcessors.writeMapP(INVERTED_INDEX));
+        Vertex tf = dag.newVertex("tf", SPILL_BUDGET_BYTES > 0
+                ? spillingAccumulateP(DOC_WORDS, SPILL_BUDGET_BYTES)
+                : aggregateByKeyP(singletonList(wholeItem()), counting(), Util::entry));
+        // ((docId, word), count) -> (word, posting list of (docId, count))
+        Vertex postings = dag.newVertex("postings", PostingsP::new);
+        // (word, posting list of (docId, count)) -> nil, written in per-partition batches or merged
+        Vertex sink = dag.newVertex("sink", afterDocId == 0
+                ? writeMapBatchedP(INVERTED_INDEX, SINK_BATCH_SIZE, SINK_MAX_DELAY_MILLIS)
+                : mergeMapP(INVERTED_INDEX, Entry<String, PostingList>::getKey, Entry<String, PostingList>::getValue,
+                        PostingList::merge));
 
         stopwordSource.localParallelism(1);
         docSource.localParallelism(1);
-        docCount.localParallelism(1);
         docLines.localParallelism(1);
 
         return dag
                 .edge(between(stopwordSource, tokenize).broadcast().priority(-1))
-                .edge(between(docSource, docCount).distributed().broadcast())
-                .edge(from(docSource, 1).to(docLines))
+                .edge(between(docSource, docLines))
                 .edge(from(docLines).to(tokenize, 1))
                 .edge(between(tokenize, tf).partitioned(wholeItem(), HASH_CODE))
-                .edge(between(docCount, tfidf).broadcast().priority(-1))
-                .edge(from(tf).to(tfidf, 1).distributed().partitioned(byWord, HASH_CODE))
-                .edge(between(tfidf, sink));
+                .edge(between(tf, postings).distributed().partitioned(byWord, HASH_CODE))
+                .edge(between(postings, sink));
     }
 
-    private void buildDocumentInventory() {
+    private static List<String> bookNames() {
         ClassLoader cl = TfIdfCoreApi.class.getClassLoader();
         try (BufferedReader r = new BufferedReader(new InputStreamReader(cl.getResourceAsStream("books"), UTF_8))) {
-            IMap<Long, String> docId2Name = jet.getMap(DOCID_NAME);
-            long[] docId = {0};
-            r.lines().peek(System.out::println).forEach(fname -> docId2Name.put(++docId[0], fname));
+            return r.lines().collect(toList());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private void addDocuments(List<String> bookNames) {
+        IMap<Long, String> docId2Name = jet.getMap(DOCID_NAME);
+        for (String name : bookNames) {
+            System.out.println(name);
+            docId2Name.put(++lastDocId, name);
+        }
+    }
+
     private static Stream<String> docLines(String name) {
         try {
             return Files.lines(Paths.get(TfIdfCoreApi.class.getResource(name).toURI()));
@@ -344,28 +422,20 @@ public class TfIdfCoreApi {
         }
     }
 
-    private static class TfIdfP extends AbstractProcessor {
-        private double logDocCount;
-
-        private final Map<String, List<Entry<Long, Double>>> wordDocTf = new HashMap<>();
-        private final Traverser<Entry<String, List<Entry<Long, Double>>>> invertedIndexTraverser =
+    private static class PostingsP extends AbstractProcessor {
+        private final Map<String, PostingList.Builder> wordDocTf = new HashMap<>();
+        private final Traverser<Entry<String, PostingList>> invertedIndexTraverser =
                 lazy(() -> traverseIterable(wordDocTf.entrySet()).map(this::toInvertedIndexEntry));
 
-        @Override
-        protected boolean tryProcess0(@Nonnull Object item) {
-            logDocCount = Math.log((Long) item);
-            return true;
-        }
-
         @Override
         @SuppressWarnings("unchecked")
-        protected boolean tryProcess1(@Nonnull Object item) {
+        protected boolean tryProcess0(@Nonnull Object item) {
             Entry<Entry<Long, String>, Long> e = (Entry<Entry<Long, String>, Long>) item;
             long docId = e.getKey().getKey();
             String word = e.getKey().getValue();
             long tf = e.getValue();
-            wordDocTf.computeIfAbsent(word, w -> new ArrayList<>())
-                     .add(entry(docId, (double) tf));
+            wordDocTf.computeIfAbsent(word, w -> new PostingList.Builder())
+                     .add(docId, tf);
             return true;
         }
 
@@ -374,26 +444,8 @@ public class TfIdfCoreApi {
             return emitFromTraverser(invertedIndexTraverser);
         }
 
-        private Entry<String, List<Entry<Long, Double>>> toInvertedIndexEntry(
-                Entry<String, List<Entry<Long, Double>>> wordDocTf
-        ) {
-            String word = wordDocTf.getKey();
-            List<Entry<Long, Double>> docidTfs = wordDocTf.getValue();
-            return entry(word, docScores(docidTfs));
-        }
-
-        private List<Entry<Long, Double>> docScores(List<Entry<Long, Double>> docidTfs) {
-            double logDf = Math.log(docidTfs.size());
-            return docidTfs.stream()
-                           .map(tfe -> tfidfEntry(logDf, tfe))
-                           .collect(toList());
-        }
-
-        private Entry<Long, Double> tfidfEntry(double logDf, Entry<Long, Double> docidTf) {
-            Long docId = docidTf.getKey();
-            double tf = docidTf.getValue();
-            double idf = logDocCount - logDf;
-            return entry(docId, tf * idf);
+        private Entry<String, PostingList> toInvertedIndexEntry(Entry<String, PostingList.Builder> wordDocTf) {
+            return entry(wordDocTf.getKey(), wordDocTf.getValue().build());
         }
     }
 }
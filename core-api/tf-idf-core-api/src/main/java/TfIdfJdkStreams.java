@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 
+import support.PostingList;
 import support.SearchGui;
 import support.TfIdfUtil;
 
@@ -41,7 +42,7 @@ import static java.util.stream.Collectors.toSet;
 public class TfIdfJdkStreams {
 
     private Set<String> stopwords;
-    private Map<String, List<Entry<Long, Double>>> invertedIndex;
+    private Map<String, PostingList> invertedIndex;
     private Map<Long, String> docId2Name;
 
     public static void main(String[] args) {
@@ -58,13 +59,9 @@ public class TfIdfJdkStreams {
     }
 
     private void buildInvertedIndex() {
-        final double logDocCount = Math.log(docId2Name.size());
-
         // stream of (docId, word)
-        Stream<Entry<Long, String>> docWords = docId2Name
-                .entrySet()
-                .parallelStream()
-                .flatMap(TfIdfUtil::docLines)
+        Stream<Entry<Long, String>> docWords = TfIdfUtil
+                .allDocLines(docId2Name)
                 .flatMap(this::tokenize);
 
         System.out.println("Building TF");
@@ -74,19 +71,13 @@ public class TfIdfJdkStreams {
                 .collect(groupingBy(identity(), counting()));
 
         System.out.println("Building inverted index");
-        // Inverted index: word -> list of (docId, TF-IDF_score)
+        // Inverted index: word -> posting list of (docId, TF)
         invertedIndex = tfMap
                 .entrySet()
                 .parallelStream()
                 .collect(groupingBy(
                         e -> e.getKey().getValue(),
-                        collectingAndThen(
-                                toList(),
-                                entries -> {
-                                    double idf = logDocCount - Math.log(entries.size());
-                                    return entries.stream().map(e -> tfidfEntry(e, idf)).collect(toList());
-                                }
-                        )
+                        collectingAndThen(toList(), TfIdfJdkStreams::postingList)
                 ));
     }
 
@@ -105,9 +96,12 @@ public class TfIdfJdkStreams {
                      .map(word -> entry(docLine.getKey(), word));
     }
 
-    // ((docId, word), count) -> (docId, tfIdf)
-    private static Entry<Long, Double> tfidfEntry(Entry<Entry<Long, String>, Long> tfEntry, Double idf) {
-        final Long tf = tfEntry.getValue();
-        return entry(tfEntry.getKey().getKey(), tf * idf);
+    // many ((docId, word), count) -> posting list of (docId, count)
+    private static PostingList postingList(List<Entry<Entry<Long, String>, Long>> tfEntries) {
+        PostingList.Builder builder = new PostingList.Builder();
+        for (Entry<Entry<Long, String>, Long> tfEntry : tfEntries) {
+            builder.add(tfEntry.getKey().getKey(), tfEntry.getValue());
+        }
+        return builder.build();
     }
 }
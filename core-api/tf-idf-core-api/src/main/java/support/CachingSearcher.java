@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.LongSupplier;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Remembers the results of the most recent searches of another {@link
+ * Searcher}. As the user types a search phrase, the GUI searches again on
+ * every keystroke, mostly for the same terms; with this cache those
+ * searches return from memory instead of scoring the posting lists again.
+ * <p>
+ * The key of a result is the sorted list of terms together with the search
+ * mode and {@code k}. The total score of a document doesn't depend on the
+ * order of the terms, so the same terms typed in a different order hit the
+ * same entry. The caller is expected to normalize the terms, for example
+ * lowercase them and remove the stopwords, before it searches. When the
+ * cache is full, it evicts the least recently used result.
+ * <p>
+ * Every search first reads the current version of the index. When the
+ * version differs from the one the cached results were computed for, for
+ * example after documents were added to the index, the cache discards all
+ * of them.
+ * <p>
+ * The methods are synchronized, so the cache can be shared between threads,
+ * but it doesn't hold the lock while the underlying searcher runs.
+ */
+public final class CachingSearcher implements Searcher {
+
+    private final Searcher searcher;
+    private final LongSupplier indexVersionFn;
+    private final Map<String, List<Entry<Long, Double>>> results;
+
+    private long indexVersion;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param searcher the searcher whose results to cache
+     * @param maxEntries the maximum number of results to keep
+     * @param indexVersionFn returns the current version of the index; it must
+     *                       change whenever the index does
+     */
+    public CachingSearcher(@Nonnull Searcher searcher, int maxEntries, @Nonnull LongSupplier indexVersionFn) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.searcher = searcher;
+        this.indexVersionFn = indexVersionFn;
+        this.indexVersion = indexVersionFn.getAsLong();
+        this.results = new LinkedHashMap<String, List<Entry<Long, Double>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<String, List<Entry<Long, Double>>> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    @Nonnull
+    @Override
+    public List<Entry<Long, Double>> search(@Nonnull List<String> terms, boolean allTerms, int k) {
+        List<String> sortedTerms = new ArrayList<>(terms);
+        sortedTerms.sort(null);
+        String key = (allTerms ? "all " : "any ") + k + ' ' + String.join(" ", sortedTerms);
+        long version = indexVersionFn.getAsLong();
+        synchronized (this) {
+            if (version != indexVersion) {
+                invalidations++;
+                results.clear();
+                indexVersion = version;
+            }
+            List<Entry<Long, Double>> cached = results.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        List<Entry<Long, Double>> result = unmodifiableList(new ArrayList<>(searcher.search(sortedTerms, allTerms, k)));
+        synchronized (this) {
+            // don't store a result of an index version that is already outdated
+            if (version == indexVersion) {
+                results.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of searches answered from the cache.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of searches passed on to the underlying searcher.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of results evicted to make room for newer ones.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of times a change of the index version discarded
+     * the cached results.
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingSearcher{size=" + results.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + '}';
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.PartitionService;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.hazelcast.jet.Util.entry;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Searches an inverted index stored in a Hazelcast map on the members that
+ * own the posting lists of the search terms. Only the scored document IDs
+ * travel to the caller, instead of a whole posting list for every term.
+ * <p>
+ * The search groups the terms by the member that owns them. Each member
+ * sums the scores of its own terms into <em>partial scores</em>, and the
+ * caller adds up the partial scores of each document. Each member's own top
+ * {@code k} documents don't necessarily add up to the overall top {@code
+ * k}. The search therefore takes up to three scatter-gather rounds, following
+ * the Three-Phase Uniform Threshold algorithm (Cao and Wang, "Efficient
+ * Top-K Query Calculation in Distributed Networks"):
+ * <ol><li>
+ *     Each member returns its top {@code k} documents by partial score. The
+ *     {@code k}-th highest sum of these partial scores is a lower bound
+ *     {@code T} of the {@code k}-th highest total score. If a single member
+ *     owns all the terms, its top {@code k} is already the result.
+ * </li><li>
+ *     A document whose total score is at least {@code T} must have a partial
+ *     score of at least {@code T / m} on one of the {@code m} members. Each
+ *     member returns the documents above that threshold, skipping the rest
+ *     with the same algorithms as {@link TopKSearch}.
+ * </li><li>
+ *     Each member returns its partial scores of all the candidates from the
+ *     first two rounds. The caller adds them up and ranks the totals.
+ * </li></ol>
+ * When the search only matches the documents that contain all the terms,
+ * the first round gives a lower bound only if {@code k} documents came back
+ * from all the members. Otherwise the second round returns all the local
+ * matches.
+ * <p>
+ * The member-side tasks run on the "{@value #EXECUTOR_NAME}" executor
+ * service and read the posting lists from their member's partitions. If a
+ * partition migrates during a search, the task reads the list from the new
+ * owner, so the result stays correct.
+ */
+public final class DistributedSearch implements Searcher {
+
+    private static final String EXECUTOR_NAME = "search";
+    /** Relative allowance for the rounding errors in summing the partial scores in a different order. */
+    private static final double ROUNDING_SLACK = 1e-9;
+
+    private final HazelcastInstance hz;
+    private final String indexName;
+    private final String docIdMapName;
+
+    /**
+     * @param hz the Hazelcast instance to submit the searches from
+     * @param indexName the name of the map from words to their {@link PostingList}s
+     * @param docIdMapName the name of the map from document IDs to names, whose size
+     *                     is the number of indexed documents
+     */
+    public DistributedSearch(@Nonnull HazelcastInstance hz, @Nonnull String indexName, @Nonnull String docIdMapName) {
+        this.hz = hz;
+        this.indexName = indexName;
+        this.docIdMapName = docIdMapName;
+    }
+
+    @Nonnull
+    @Override
+    public List<Entry<Long, Double>> search(@Nonnull List<String> terms, boolean allTerms, int k) {
+        if (terms.isEmpty()) {
+            return emptyList();
+        }
+        long docCount = hz.getMap(docIdMapName).size();
+        PartitionService partitionService = hz.getPartitionService();
+        Map<Member, List<String>> termsByOwner = terms.stream().collect(
+                groupingBy(term -> partitionService.getPartition(term).getOwner()));
+
+        // round 1: the top k partial scores on each member
+        Map<Member, List<Entry<Long, Double>>> localTops = scatterGather(termsByOwner,
+                ownTerms -> new LocalTopK(indexName, ownTerms, docCount, allTerms, k));
+        if (termsByOwner.size() == 1) {
+            return localTops.values().iterator().next();
+        }
+        if (allTerms && localTops.values().stream().anyMatch(List::isEmpty)) {
+            // the terms of some member have no document in common
+            return emptyList();
+        }
+
+        // round 2: the partial scores that may add up to a top k total score
+        List<Entry<Long, Double>> topTotals = TopKSearch.best(totals(localTops.values(), allTerms), k);
+        double lowerBound = topTotals.size() == k ? topTotals.get(k - 1).getValue() : 0;
+        double minPartialScore = lowerBound > 0
+                ? lowerBound / termsByOwner.size() * (1 - ROUNDING_SLACK)
+                : Double.NEGATIVE_INFINITY;
+        Map<Member, List<Entry<Long, Double>>> aboveMin = scatterGather(termsByOwner,
+                ownTerms -> new LocalScoringAbove(indexName, ownTerms, docCount, allTerms, minPartialScore));
+
+        // round 3: all the partial scores of the candidates
+        long[] candidates = Stream.of(localTops, aboveMin)
+                                  .flatMap(results -> results.values().stream())
+                                  .flatMap(List::stream)
+                                  .mapToLong(Entry::getKey)
+                                  .distinct()
+                                  .sorted()
+                                  .toArray();
+        Map<Member, List<Entry<Long, Double>>> partialScores = scatterGather(termsByOwner,
+                ownTerms -> new LocalScores(indexName, ownTerms, docCount, allTerms, candidates));
+        return TopKSearch.best(totals(partialScores.values(), allTerms), k);
+    }
+
+    /**
+     * Adds up the partial scores of each document. If {@code allTerms} is
+     * set, drops the documents that some member didn't report.
+     */
+    private static List<Entry<Long, Double>> totals(
+            Collection<List<Entry<Long, Double>>> partialScores, boolean allTerms
+    ) {
+        // docId -> {sum of partial scores, number of partial scores}
+        Map<Long, double[]> sums = new HashMap<>();
+        for (List<Entry<Long, Double>> memberScores : partialScores) {
+            for (Entry<Long, Double> e : memberScores) {
+                double[] sum = sums.computeIfAbsent(e.getKey(), x -> new double[2]);
+                sum[0] += e.getValue();
+                sum[1]++;
+            }
+        }
+        return sums.entrySet().stream()
+                   .filter(e -> !allTerms || e.getValue()[1] == partialScores.size())
+                   .map(e -> entry(e.getKey(), e.getValue()[0]))
+                   .collect(toList());
+    }
+
+    private <T> Map<Member, T> scatterGather(
+            Map<Member, List<String>> termsByOwner, Function<List<String>, LocalTask<T>> createTaskFn
+    ) {
+        IExecutorService executor = hz.getExecutorService(EXECUTOR_NAME);
+        Map<Member, Future<T>> futures = new HashMap<>();
+        termsByOwner.forEach((member, ownTerms) ->
+                futures.put(member, executor.submitToMember(createTaskFn.apply(ownTerms), member)));
+        Map<Member, T> results = new HashMap<>();
+        try {
+            for (Entry<Member, Future<T>> e : futures.entrySet()) {
+                results.put(e.getKey(), e.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
+    /**
+     * The part of a search that runs on a member and scores the documents
+     * by the search terms the member owns.
+     */
+    private abstract static class LocalTask<T> implements Callable<T>, HazelcastInstanceAware, Serializable {
+        final long docCount;
+        final boolean allTerms;
+        private final String indexName;
+        private final List<String> terms;
+        private transient HazelcastInstance hz;
+
+        LocalTask(String indexName, List<String> terms, long docCount, boolean allTerms) {
+            this.indexName = indexName;
+            this.terms = terms;
+            this.docCount = docCount;
+            this.allTerms = allTerms;
+        }
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance hz) {
+            this.hz = hz;
+        }
+
+        /**
+         * Returns the posting lists of the terms that are in the index. If
+         * {@code allTerms} is set and a term isn't in the index, returns an
+         * empty list because no document matches.
+         */
+        List<PostingList> postingLists() {
+            IMap<String, PostingList> index = hz.getMap(indexName);
+            List<PostingList> lists = terms.stream()
+                                           .map(index::get)
+                                           .filter(Objects::nonNull)
+                                           .collect(toList());
+            return allTerms && lists.size() < terms.size() ? emptyList() : lists;
+        }
+    }
+
+    private static final class LocalTopK extends LocalTask<List<Entry<Long, Double>>> {
+        private final int k;
+
+        LocalTopK(String indexName, List<String> terms, long docCount, boolean allTerms, int k) {
+            super(indexName, terms, docCount, allTerms);
+            this.k = k;
+        }
+
+        @Override
+        public List<Entry<Long, Double>> call() {
+            return allTerms
+                    ? TopKSearch.topKAllTerms(postingLists(), docCount, k)
+                    : TopKSearch.topK(postingLists(), docCount, k);
+        }
+    }
+
+    private static final class LocalScoringAbove extends LocalTask<List<Entry<Long, Double>>> {
+        private final double minScore;
+
+        LocalScoringAbove(String indexName, List<String> terms, long docCount, boolean allTerms, double minScore) {
+            super(indexName, terms, docCount, allTerms);
+            this.minScore = minScore;
+        }
+
+        @Override
+        public List<Entry<Long, Double>> call() {
+            return allTerms
+                    ? TopKSearch.allTermsScoringAbove(postingLists(), docCount, minScore)
+                    : TopKSearch.scoringAbove(postingLists(), docCount, minScore);
+        }
+    }
+
+    private static final class LocalScores extends LocalTask<List<Entry<Long, Double>>> {
+        private final long[] docIds;
+
+        LocalScores(String indexName, List<String> terms, long docCount, boolean allTerms, long[] docIds) {
+            super(indexName, terms, docCount, allTerms);
+            this.docIds = docIds;
+        }
+
+        /**
+         * Returns the partial scores of the documents. The document IDs are
+         * sorted, so each cursor only moves forward.
+         */
+        @Override
+        public List<Entry<Long, Double>> call() {
+            List<PostingList.Cursor> cursors = postingLists().stream()
+                                                             .map(l -> l.cursor(TopKSearch.idf(l, docCount)))
+                                                             .collect(toList());
+            List<Entry<Long, Double>> scores = new ArrayList<>();
+            for (long docId : docIds) {
+                double score = 0;
+                int matching = 0;
+                for (PostingList.Cursor cursor : cursors) {
+                    if (cursor.advanceTo(docId) && cursor.docId() == docId) {
+                        score += cursor.score();
+                        matching++;
+                    }
+                }
+                if (matching > 0 && (!allTerms || matching == cursors.size())) {
+                    scores.add(entry(docId, score));
+                }
+            }
+            return scores;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * The list of documents that contain a word, each with the word's term
+ * frequency (TF) in the document. The size of the list is the word's
+ * document frequency (DF). The list doesn't contain any TF-IDF scores: the
+ * IDF depends on the number of all the documents, which changes with every
+ * indexed document, so a {@link #cursor(double) cursor} computes the scores
+ * at query time from the IDF it's given. This way new documents can be
+ * indexed by {@link #merge merging} their postings into the existing lists.
+ * <p>
+ * It takes a few bytes per posting instead of the 80 and more of a {@code
+ * List<Entry<Long, Double>>}:
+ * <ul><li>
+ *     the document IDs are sorted and stored as the variable-length encoded
+ *     gaps between consecutive IDs, each one followed by the variable-length
+ *     encoded TF, typically one or two bytes each
+ * </li><li>
+ *     after every {@value #SKIP_INTERVAL} postings there is a skip pointer:
+ *     the document ID of the last posting before it and the position of the
+ *     next posting in the encoded bytes. {@link Cursor#advanceTo} gallops
+ *     over the skip pointers to the block that may contain the target
+ *     document and only decodes the postings within that block
+ * </li></ul>
+ * Read the postings, in ascending order of document IDs, with a {@link
+ * Cursor}, which decodes them on the fly. Build a list with a {@link
+ * Builder}. Hazelcast stores the lists with {@link PostingListSerializer},
+ * which writes the compact arrays as they are.
+ */
+public final class PostingList {
+
+    static final int SKIP_INTERVAL = 64;
+
+    private final int size;
+    private final long maxTf;
+    private final byte[] postings;
+    private final long[] skipDocIds;
+    private final int[] skipPositions;
+
+    PostingList(int size, long maxTf, byte[] postings, long[] skipDocIds, int[] skipPositions) {
+        this.size = size;
+        this.maxTf = maxTf;
+        this.postings = postings;
+        this.skipDocIds = skipDocIds;
+        this.skipPositions = skipPositions;
+    }
+
+    /**
+     * Returns the number of postings, i.e., the document frequency of the
+     * word.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the highest term frequency in the list.
+     */
+    public long maxTf() {
+        return maxTf;
+    }
+
+    /**
+     * Returns a new cursor positioned before the first posting, which
+     * reports the term frequencies as the scores.
+     */
+    @Nonnull
+    public Cursor cursor() {
+        return new Cursor(1);
+    }
+
+    /**
+     * Returns a new cursor positioned before the first posting, which
+     * reports the TF-IDF scores for the given IDF of the word.
+     */
+    @Nonnull
+    public Cursor cursor(double idf) {
+        return new Cursor(idf);
+    }
+
+    /**
+     * Returns the union of the given posting lists. If a document is in both,
+     * it takes its TF from {@code newer}, which lets a document be indexed
+     * again after it has changed.
+     */
+    @Nonnull
+    public static PostingList merge(@Nonnull PostingList older, @Nonnull PostingList newer) {
+        Builder builder = new Builder();
+        Cursor olderCursor = older.cursor();
+        Cursor newerCursor = newer.cursor();
+        boolean olderLeft = olderCursor.advance();
+        boolean newerLeft = newerCursor.advance();
+        while (olderLeft || newerLeft) {
+            if (!newerLeft || olderLeft && olderCursor.docId() < newerCursor.docId()) {
+                builder.add(olderCursor.docId(), olderCursor.tf());
+                olderLeft = olderCursor.advance();
+            } else {
+                if (olderLeft && olderCursor.docId() == newerCursor.docId()) {
+                    olderLeft = olderCursor.advance();
+                }
+                builder.add(newerCursor.docId(), newerCursor.tf());
+                newerLeft = newerCursor.advance();
+            }
+        }
+        return builder.build();
+    }
+
+    byte[] postings() {
+        return postings;
+    }
+
+    long[] skipDocIds() {
+        return skipDocIds;
+    }
+
+    int[] skipPositions() {
+        return skipPositions;
+    }
+
+    @Override
+    public String toString() {
+        return "PostingList{size=" + size + ", maxTf=" + maxTf + ", bytes=" + postings.length + '}';
+    }
+
+    /**
+     * Iterates over the postings of the list without allocating anything per
+     * posting.
+     */
+    public final class Cursor {
+        private final double idf;
+        private int index = -1;
+        private int position;
+        private long docId;
+        private long tf;
+
+        private Cursor(double idf) {
+            this.idf = idf;
+        }
+
+        /**
+         * Moves to the next posting. Returns {@code false} when the list is
+         * exhausted.
+         */
+        public boolean advance() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            docId += readVarLong();
+            tf = readVarLong();
+            return true;
+        }
+
+        /**
+         * Moves to the first posting whose document ID is at least the given
+         * one, unless the cursor is already there. Returns {@code false} if
+         * there is no such posting. It skips the blocks of postings that end
+         * before the target without decoding them.
+         */
+        public boolean advanceTo(long targetDocId) {
+            if (index < size && (index < 0 || docId < targetDocId)) {
+                skipTowards(targetDocId);
+            }
+            while (index < 0 || docId < targetDocId) {
+                if (!advance()) {
+                    return false;
+                }
+            }
+            return index < size;
+        }
+
+        /**
+         * Jumps to the last posting of the last block that ends before the
+         * target, if it's ahead of the current posting. It looks for the block
+         * with an exponential search over the skip pointers, starting from the
+         * current one, so a short jump takes few steps even in a long list.
+         * The jump leaves the TF stale, but the caller always advances past
+         * that posting.
+         */
+        private void skipTowards(long targetDocId) {
+            // the first skip pointer that leads past the current posting
+            int first = (index + 1) / SKIP_INTERVAL;
+            if (first >= skipDocIds.length || skipDocIds[first] >= targetDocId) {
+                return;
+            }
+            // gallop: skipDocIds[low] < targetDocId, find high with skipDocIds[high] >= targetDocId
+            int low = first;
+            int step = 1;
+            int high = first + step;
+            while (high < skipDocIds.length && skipDocIds[high] < targetDocId) {
+                low = high;
+                step <<= 1;
+                high = first + step;
+            }
+            high = Math.min(high, skipDocIds.length);
+            // binary search for the last skip pointer before the target in (low, high)
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (skipDocIds[mid] < targetDocId) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            index = (low + 1) * SKIP_INTERVAL - 1;
+            docId = skipDocIds[low];
+            position = skipPositions[low];
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = postings[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Returns the document ID of the current posting.
+         */
+        public long docId() {
+            return docId;
+        }
+
+        /**
+         * Returns the term frequency of the current posting.
+         */
+        public long tf() {
+            return tf;
+        }
+
+        /**
+         * Returns the score of the current posting, its TF multiplied by the
+         * IDF given to the cursor.
+         */
+        public double score() {
+            return tf * idf;
+        }
+
+        /**
+         * Returns the highest score in the cursor's list, an upper bound of
+         * {@link #score()} at any posting.
+         */
+        public double maxScore() {
+            return maxTf * idf;
+        }
+    }
+
+    /**
+     * Collects the {@code (docId, TF)} pairs of a word and builds its posting
+     * list. The pairs can be added in any order, but each document only once.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 4;
+        private static final int MAX_VARLONG_BYTES = 10;
+
+        private long[] docIds = new long[INITIAL_CAPACITY];
+        private long[] termFrequencies = new long[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * Adds the term frequency of the word in the given document.
+         */
+        public void add(long docId, long tf) {
+            if (docId < 0 || tf < 0) {
+                throw new IllegalArgumentException("Negative docId or TF: docId=" + docId + ", tf=" + tf);
+            }
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                termFrequencies = Arrays.copyOf(termFrequencies, size * 2);
+            }
+            docIds[size] = docId;
+            termFrequencies[size] = tf;
+            size++;
+        }
+
+        /**
+         * Returns the number of documents added so far, i.e., the document
+         * frequency of the word.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Builds the posting list of the documents added so far.
+         */
+        @Nonnull
+        public PostingList build() {
+            sortByDocId();
+            byte[] encoded = new byte[size * 2 * MAX_VARLONG_BYTES];
+            int skipCount = Math.max(0, size - 1) / SKIP_INTERVAL;
+            long[] skipDocIds = new long[skipCount];
+            int[] skipPositions = new int[skipCount];
+            int position = 0;
+            long prevDocId = 0;
+            long maxTf = 0;
+            for (int i = 0; i < size; i++) {
+                position = writeVarLong(encoded, position, docIds[i] - prevDocId);
+                position = writeVarLong(encoded, position, termFrequencies[i]);
+                prevDocId = docIds[i];
+                maxTf = Math.max(maxTf, termFrequencies[i]);
+                int skip = (i + 1) / SKIP_INTERVAL - 1;
+                if ((i + 1) % SKIP_INTERVAL == 0 && skip < skipCount) {
+                    skipDocIds[skip] = docIds[i];
+                    skipPositions[skip] = position;
+                }
+            }
+            return new PostingList(size, maxTf, Arrays.copyOf(encoded, position), skipDocIds, skipPositions);
+        }
+
+        private void sortByDocId() {
+            for (int i = 1; i < size; i++) {
+                if (docIds[i - 1] > docIds[i]) {
+                    Integer[] order = new Integer[size];
+                    Arrays.setAll(order, j -> j);
+                    Arrays.sort(order, (a, b) -> Long.compare(docIds[a], docIds[b]));
+                    long[] sortedDocIds = new long[size];
+                    long[] sortedTfs = new long[size];
+                    Arrays.setAll(sortedDocIds, j -> docIds[order[j]]);
+                    Arrays.setAll(sortedTfs, j -> termFrequencies[order[j]]);
+                    docIds = sortedDocIds;
+                    termFrequencies = sortedTfs;
+                    return;
+                }
+            }
+        }
+
+        private static int writeVarLong(byte[] buf, int position, long value) {
+            long v = value;
+            int pos = position;
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) (v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+            return pos;
+        }
+    }
+}
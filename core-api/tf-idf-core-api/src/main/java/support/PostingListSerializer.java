@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import java.io.IOException;
+
+/**
+ * Hazelcast serializer of {@link PostingList}. It writes the list's compact
+ * arrays as they are, so a stored list takes about as much memory as it
+ * does on the heap. Register it on each member with
+ * <pre>
+ * config.getSerializationConfig().addSerializerConfig(new SerializerConfig()
+ *         .setTypeClass(PostingList.class)
+ *         .setImplementation(new PostingListSerializer()));
+ * </pre>
+ */
+public final class PostingListSerializer implements StreamSerializer<PostingList> {
+
+    /**
+     * The type ID of {@link PostingList} in Hazelcast serialization.
+     */
+    public static final int TYPE_ID = 1;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, PostingList list) throws IOException {
+        out.writeInt(list.size());
+        out.writeLong(list.maxTf());
+        out.writeByteArray(list.postings());
+        out.writeLongArray(list.skipDocIds());
+        out.writeIntArray(list.skipPositions());
+    }
+
+    @Override
+    public PostingList read(ObjectDataInput in) throws IOException {
+        int size = in.readInt();
+        long maxTf = in.readLong();
+        byte[] postings = in.readByteArray();
+        long[] skipDocIds = in.readLongArray();
+        int[] skipPositions = in.readIntArray();
+        return new PostingList(size, maxTf, postings, skipDocIds, skipPositions);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -24,17 +24,14 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.Set;
 
-import static com.hazelcast.jet.Util.entry;
 import static java.awt.EventQueue.invokeLater;
 import static java.util.Collections.emptyList;
-import static java.util.Comparator.comparingDouble;
-import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.partitioningBy;
-import static java.util.stream.Collectors.reducing;
+import static java.util.stream.Collectors.toList;
 import static javax.swing.WindowConstants.EXIT_ON_CLOSE;
 
 public class SearchGui {
@@ -42,18 +39,38 @@ public class SearchGui {
     private static final int WINDOW_Y = 200;
     private static final int WINDOW_WIDTH = 300;
     private static final int WINDOW_HEIGHT = 350;
+    private static final int MAX_RESULTS = 20;
+    private static final int QUERY_CACHE_SIZE = 1024;
 
     private final Map<Long, String> docId2Name;
-    private final Map<String, List<Entry<Long, Double>>> invertedIndex;
+    private final Searcher searcher;
     private final Set<String> stopwords;
 
+    /**
+     * Opens a window that searches the given inverted index in this JVM. The
+     * index must not change, so the window caches the search results for
+     * good.
+     */
     public SearchGui(
             Map<Long, String> docId2Name,
-            Map<String, List<Entry<Long, Double>>> invertedIndex,
+            Map<String, PostingList> invertedIndex,
+            Set<String> stopwords
+    ) {
+        this(docId2Name, new CachingSearcher(localSearcher(docId2Name, invertedIndex), QUERY_CACHE_SIZE, () -> 0),
+                stopwords);
+    }
+
+    /**
+     * Opens a window that delegates the searches to the given searcher, for
+     * example a {@link DistributedSearch} behind a {@link CachingSearcher}.
+     */
+    public SearchGui(
+            Map<Long, String> docId2Name,
+            Searcher searcher,
             Set<String> stopwords
     ) {
         this.docId2Name = docId2Name;
-        this.invertedIndex = invertedIndex;
+        this.searcher = searcher;
         this.stopwords = stopwords;
         invokeLater(this::buildFrame);
     }
@@ -72,41 +89,49 @@ public class SearchGui {
         mainPanel.add(input, BorderLayout.NORTH);
         final JTextArea output = new JTextArea();
         mainPanel.add(output, BorderLayout.CENTER);
+        final JCheckBox allTerms = new JCheckBox("Match all terms", true);
+        mainPanel.add(allTerms, BorderLayout.SOUTH);
         input.addKeyListener(new KeyAdapter() {
             @Override
             public void keyTyped(KeyEvent e) {
-                invokeLater(() -> output.setText(search(input.getText().split("\\s+"))));
+                invokeLater(() -> output.setText(search(allTerms.isSelected(), input.getText().split("\\s+"))));
             }
         });
+        allTerms.addActionListener(e ->
+                output.setText(search(allTerms.isSelected(), input.getText().split("\\s+"))));
         frame.setVisible(true);
     }
 
-    private String search(String... terms) {
+    private String search(boolean allTerms, String... terms) {
         Map<Boolean, List<String>> byStopword = Arrays.stream(terms)
                                                       .map(String::toLowerCase)
                                                       .collect(partitioningBy(stopwords::contains));
         final List<String> searchTerms = byStopword.get(false);
         final String stopwordLine = String.join(" ", byStopword.get(true));
+        // find the documents with the highest total TF-IDF score, best first
+        final List<Entry<Long, Double>> topDocs = searcher.search(searchTerms, allTerms, MAX_RESULTS);
         return (!stopwordLine.isEmpty() ? "Stopwords: " + stopwordLine + "\n--------\n" : "")
-                + searchTerms.stream()
-                             // retrieve all (docId, score) entries from the index
-                             .flatMap(term -> Optional.ofNullable(invertedIndex.get(term))
-                                                      .orElse(emptyList())
-                                                      .stream())
-                             // group by docId, accumulate the number of terms found in the document
-                             // and the total TF-IDF score of the document
-                             .collect(groupingBy(Entry<Long, Double>::getKey, reducing(
-                                     entry(0L, 0.0),
-                                     (acc, docScore) -> entry(
-                                             acc.getKey() + 1, acc.getValue() + docScore.getValue()))))
-                             .entrySet().stream()
-                             // filter out documents which don't contain all the entered terms
-                             .filter((Entry<?, Entry<Long, Double>> e) -> e.getValue().getKey() == searchTerms.size())
-                             // sort documents by score, descending
-                             .sorted(comparingDouble(
-                                     (Entry<Long, Entry<Long, Double>> e) -> e.getValue().getValue()).reversed())
-                             .map(e -> String.format("%5.2f %s",
-                                     e.getValue().getValue() / terms.length, docId2Name.get(e.getKey())))
-                             .collect(joining("\n"));
+                + topDocs.stream()
+                         .map(e -> String.format("%5.2f %s", e.getValue() / terms.length, docId2Name.get(e.getKey())))
+                         .collect(joining("\n"));
+    }
+
+    private static Searcher localSearcher(Map<Long, String> docId2Name, Map<String, PostingList> invertedIndex) {
+        return (terms, allTerms, k) -> {
+            // retrieve the posting list of each term, skip the terms that aren't in the index
+            final List<PostingList> postingLists = terms.stream()
+                                                        .map(invertedIndex::get)
+                                                        .filter(Objects::nonNull)
+                                                        .collect(toList());
+            // the IDF comes from the number of documents indexed so far
+            final long docCount = docId2Name.size();
+            if (!allTerms) {
+                return TopKSearch.topK(postingLists, docCount, k);
+            }
+            // a term that isn't in the index matches no document
+            return postingLists.size() == terms.size()
+                    ? TopKSearch.topKAllTerms(postingLists, docCount, k)
+                    : emptyList();
+        };
     }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Finds the documents that best match a list of search terms in an
+ * inverted index.
+ */
+@FunctionalInterface
+public interface Searcher {
+
+    /**
+     * Returns the {@code (docId, totalScore)} pairs of the top {@code k}
+     * documents for the given terms, highest score first. If {@code
+     * allTerms} is set, only the documents that contain all the terms
+     * qualify, otherwise those that contain any of them.
+     */
+    @Nonnull
+    List<Entry<Long, Double>> search(@Nonnull List<String> terms, boolean allTerms, int k);
+}
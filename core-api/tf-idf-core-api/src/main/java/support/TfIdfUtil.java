@@ -16,13 +16,17 @@
 
 package support;
 
+import shared.BookLinesSpliterator;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -59,6 +63,30 @@ public class TfIdfUtil {
         }
     }
 
+    /**
+     * Returns a parallel stream of the lowercase lines of all the documents,
+     * each one paired with its document ID. Unlike {@code
+     * docId2Name.entrySet().parallelStream().flatMap(TfIdfUtil::docLines)},
+     * it splits the documents themselves between the threads, see {@link
+     * BookLinesSpliterator}.
+     */
+    public static Stream<Entry<Long, String>> allDocLines(Map<Long, String> docId2Name) {
+        Map<Long, Path> docId2Path = new HashMap<>();
+        for (Entry<Long, String> e : docId2Name.entrySet()) {
+            docId2Path.put(e.getKey(), bookPath(e.getValue()));
+        }
+        return BookLinesSpliterator.linesByKey(docId2Path)
+                                   .map(e -> entry(e.getKey(), e.getValue().toLowerCase()));
+    }
+
+    private static Path bookPath(String name) {
+        try {
+            return Paths.get(TfIdfUtil.class.getResource("/books/" + name).toURI());
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static BufferedReader resourceReader(String resourceName) {
         final ClassLoader cl = TfIdfUtil.class.getClassLoader();
         InputStream in = Objects.requireNonNull(cl.getResourceAsStream(resourceName));
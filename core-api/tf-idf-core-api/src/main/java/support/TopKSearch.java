@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package support;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import static com.hazelcast.jet.Util.entry;
+import static java.util.Comparator.comparingDouble;
+import static java.util.Comparator.comparingInt;
+import static java.util.Comparator.comparingLong;
+
+/**
+ * Finds the {@code k} documents with the highest total score for a set of
+ * search terms using the WAND algorithm (Broder et al., "Efficient Query
+ * Evaluation using a Two-Level Retrieval Process"). The total score of a
+ * document is the sum of its TF-IDF scores for the terms it contains. The
+ * posting lists only hold the term frequencies; the search computes the IDF
+ * of each term from the current number of documents, so the scores stay
+ * right as the index grows.
+ * <p>
+ * The search keeps a cursor on each term's posting list, all of them
+ * advancing in ascending order of document IDs, and the best {@code k}
+ * documents found so far in a min-heap. Once the heap is full, its lowest
+ * score is the threshold a document has to beat. Sorting the cursors by
+ * their current document and adding up the {@link
+ * PostingList.Cursor#maxScore() highest scores} of their lists, the search finds the first document, the
+ * <em>pivot</em>, at which enough terms could match to beat the threshold.
+ * The documents before the pivot cannot make it into the top {@code k}, so
+ * the cursors behind the pivot skip straight to it without scoring
+ * anything. Only when all the cursors up to the pivot are on the same
+ * document does the search compute its actual score. The higher the
+ * threshold gets, the more postings are skipped.
+ * <p>
+ * {@link #topKAllTerms} only considers the documents that contain all the
+ * terms. It intersects the posting lists by leapfrogging, starting from the
+ * shortest list: the cursors take turns to {@link
+ * PostingList.Cursor#advanceTo advance} to the candidate document and when
+ * one of them overshoots, the document it landed on becomes the new
+ * candidate. Since the cursors gallop over the skip pointers of their
+ * lists, the cost is roughly proportional to the length of the shortest
+ * list rather than the sum of all of them.
+ */
+public final class TopKSearch {
+
+    /** Orders the results from the lowest to the highest rank. */
+    private static final Comparator<Entry<Long, Double>> BY_RANK =
+            comparingDouble(Entry<Long, Double>::getValue)
+                    .thenComparing(comparingLong(Entry<Long, Double>::getKey).reversed());
+
+    private static final Comparator<PostingList.Cursor> BY_DOC_ID = comparingLong(PostingList.Cursor::docId);
+
+    private TopKSearch() {
+    }
+
+    /**
+     * Returns the {@code (docId, totalScore)} pairs of the top {@code k}
+     * documents in the given posting lists, highest score first. Documents
+     * with equal scores are ranked by ascending ID. The IDF of each list's
+     * word comes from its size and the given number of indexed documents.
+     */
+    @Nonnull
+    public static List<Entry<Long, Double>> topK(@Nonnull List<PostingList> postingLists, long docCount, int k) {
+        checkK(k);
+        return wand(postingLists, docCount, k, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Returns the {@code (docId, totalScore)} pairs of all the documents in
+     * the given posting lists whose total score is above {@code minScore},
+     * highest score first. It skips the other documents just like {@link
+     * #topK} skips those that can't make it into the top {@code k}.
+     */
+    @Nonnull
+    public static List<Entry<Long, Double>> scoringAbove(
+            @Nonnull List<PostingList> postingLists, long docCount, double minScore
+    ) {
+        return wand(postingLists, docCount, Integer.MAX_VALUE, minScore);
+    }
+
+    /**
+     * Returns the {@code (docId, totalScore)} pairs of the top {@code k}
+     * documents that are in all the given posting lists, highest score
+     * first. Documents with equal scores are ranked by ascending ID. The IDF
+     * of each list's word comes from its size and the given number of
+     * indexed documents.
+     */
+    @Nonnull
+    public static List<Entry<Long, Double>> topKAllTerms(
+            @Nonnull List<PostingList> postingLists, long docCount, int k
+    ) {
+        checkK(k);
+        return leapfrogAll(postingLists, docCount, k, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Returns the {@code (docId, totalScore)} pairs of all the documents that
+     * are in all the given posting lists and whose total score is above
+     * {@code minScore}, highest score first.
+     */
+    @Nonnull
+    public static List<Entry<Long, Double>> allTermsScoringAbove(
+            @Nonnull List<PostingList> postingLists, long docCount, double minScore
+    ) {
+        return leapfrogAll(postingLists, docCount, Integer.MAX_VALUE, minScore);
+    }
+
+    /**
+     * Returns the top {@code k} of the given {@code (docId, totalScore)}
+     * pairs, ranked the same way as the results of {@link #topK}.
+     */
+    @Nonnull
+    static List<Entry<Long, Double>> best(@Nonnull Iterable<Entry<Long, Double>> results, int k) {
+        PriorityQueue<Entry<Long, Double>> heap = new PriorityQueue<>(BY_RANK);
+        for (Entry<Long, Double> result : results) {
+            offer(heap, k, result);
+        }
+        return sorted(heap);
+    }
+
+    /**
+     * Returns the inverse document frequency of the list's word among the
+     * given number of documents.
+     */
+    static double idf(PostingList list, long docCount) {
+        return Math.log(docCount) - Math.log(list.size());
+    }
+
+    private static List<Entry<Long, Double>> wand(
+            List<PostingList> postingLists, long docCount, int k, double minScore
+    ) {
+        List<PostingList.Cursor> cursors = new ArrayList<>();
+        for (PostingList list : postingLists) {
+            PostingList.Cursor cursor = list.cursor(idf(list, docCount));
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        PriorityQueue<Entry<Long, Double>> heap = new PriorityQueue<>(BY_RANK);
+        double threshold = minScore;
+        while (!cursors.isEmpty()) {
+            cursors.sort(BY_DOC_ID);
+            int pivot = findPivot(cursors, threshold);
+            if (pivot < 0) {
+                break;
+            }
+            long pivotDocId = cursors.get(pivot).docId();
+            if (cursors.get(0).docId() == pivotDocId) {
+                double score = scoreAndAdvance(cursors, pivotDocId);
+                if (score > minScore) {
+                    offer(heap, k, entry(pivotDocId, score));
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek().getValue();
+                }
+            } else {
+                skipTo(cursors, pivot, pivotDocId);
+            }
+        }
+        return sorted(heap);
+    }
+
+    private static List<Entry<Long, Double>> leapfrogAll(
+            List<PostingList> postingLists, long docCount, int k, double minScore
+    ) {
+        PriorityQueue<Entry<Long, Double>> heap = new PriorityQueue<>(BY_RANK);
+        if (postingLists.isEmpty()) {
+            return sorted(heap);
+        }
+        PostingList.Cursor[] cursors = postingLists.stream()
+                                                   .sorted(comparingInt(PostingList::size))
+                                                   .map(list -> list.cursor(idf(list, docCount)))
+                                                   .toArray(PostingList.Cursor[]::new);
+        long candidate = 0;
+        while (leapfrog(cursors, candidate)) {
+            candidate = cursors[0].docId();
+            double score = 0;
+            for (PostingList.Cursor cursor : cursors) {
+                score += cursor.score();
+            }
+            if (score > minScore) {
+                offer(heap, k, entry(candidate, score));
+            }
+            candidate++;
+        }
+        return sorted(heap);
+    }
+
+    private static void checkK(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+    }
+
+    /**
+     * Moves all the cursors to the first document, at or after the given one,
+     * that is in all their lists. Returns {@code false} if there is no such
+     * document.
+     */
+    private static boolean leapfrog(PostingList.Cursor[] cursors, long fromDocId) {
+        long candidate = fromDocId;
+        int agreeing = 0;
+        for (int i = 0; agreeing < cursors.length; i = (i + 1) % cursors.length) {
+            if (!cursors[i].advanceTo(candidate)) {
+                return false;
+            }
+            if (cursors[i].docId() == candidate) {
+                agreeing++;
+            } else {
+                candidate = cursors[i].docId();
+                agreeing = 1;
+            }
+        }
+        return true;
+    }
+
+    private static void offer(PriorityQueue<Entry<Long, Double>> heap, int k, Entry<Long, Double> result) {
+        if (heap.size() < k) {
+            heap.add(result);
+        } else if (BY_RANK.compare(result, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(result);
+        }
+    }
+
+    private static List<Entry<Long, Double>> sorted(PriorityQueue<Entry<Long, Double>> heap) {
+        List<Entry<Long, Double>> result = new ArrayList<>(heap);
+        result.sort(BY_RANK.reversed());
+        return result;
+    }
+
+    /**
+     * Returns the index of the first cursor at which the summed up highest
+     * scores of the cursors so far exceed the threshold, or -1 if there is no
+     * such cursor. The cursors must be sorted by document ID.
+     */
+    private static int findPivot(List<PostingList.Cursor> cursors, double threshold) {
+        double upperBound = 0;
+        for (int i = 0; i < cursors.size(); i++) {
+            upperBound += cursors.get(i).maxScore();
+            if (upperBound > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds up the scores of the cursors that are on the given document,
+     * advances them past it and drops the exhausted ones.
+     */
+    private static double scoreAndAdvance(List<PostingList.Cursor> cursors, long docId) {
+        double score = 0;
+        for (Iterator<PostingList.Cursor> it = cursors.iterator(); it.hasNext(); ) {
+            PostingList.Cursor cursor = it.next();
+            if (cursor.docId() != docId) {
+                break;
+            }
+            score += cursor.score();
+            if (!cursor.advance()) {
+                it.remove();
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Moves the cursors before the pivot to the pivot's document, or past it,
+     * and drops the exhausted ones.
+     */
+    private static void skipTo(List<PostingList.Cursor> cursors, int pivot, long docId) {
+        for (int i = pivot - 1; i >= 0; i--) {
+            if (!cursors.get(i).advanceTo(docId)) {
+                cursors.remove(i);
+            }
+        }
+    }
+}
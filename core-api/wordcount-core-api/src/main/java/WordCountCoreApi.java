@@ -17,44 +17,69 @@
 import com.hazelcast.core.IMap;
 import com.hazelcast.jet.Jet;
 import com.hazelcast.jet.JetInstance;
-import com.hazelcast.jet.Util;
 import com.hazelcast.jet.config.InstanceConfig;
 import com.hazelcast.jet.config.JetConfig;
 import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Processor;
 import com.hazelcast.jet.core.Vertex;
-import com.hazelcast.jet.pipeline.ContextFactory;
+import com.hazelcast.jet.function.SupplierEx;
+import shared.SpillingCountP;
+import shared.TokenizeP;
+import wordcount.CountWordBytesP;
+import wordcount.DecodeWordCountsP;
+import wordcount.EncodeWordCountsP;
+import wordcount.HeavyHitters;
+import wordcount.NGramTokenizeP;
+import wordcount.ReadBooksP;
+import wordcount.TokenizeAndCountP;
+import wordcount.TopKP;
+import wordcount.TopWords;
+import wordcount.WordCountBatch;
 
 import javax.annotation.Nonnull;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
-import static com.hazelcast.jet.Traversers.traverseArray;
-import static com.hazelcast.jet.Traversers.traverseStream;
-import static com.hazelcast.jet.aggregate.AggregateOperations.counting;
+import static com.hazelcast.jet.Util.entry;
 import static com.hazelcast.jet.core.Edge.between;
+import static com.hazelcast.jet.core.Edge.from;
+import static com.hazelcast.jet.Traversers.traverseIterable;
 import static com.hazelcast.jet.core.Partitioner.HASH_CODE;
-import static com.hazelcast.jet.core.processor.Processors.accumulateByKeyP;
-import static com.hazelcast.jet.core.processor.Processors.combineByKeyP;
+import static com.hazelcast.jet.core.processor.Processors.accumulateP;
+import static com.hazelcast.jet.core.processor.Processors.combineP;
 import static com.hazelcast.jet.core.processor.Processors.flatMapP;
-import static com.hazelcast.jet.core.processor.Processors.flatMapUsingContextP;
+import static com.hazelcast.jet.core.processor.SinkProcessors.writeListP;
 import static com.hazelcast.jet.core.processor.SinkProcessors.writeMapP;
-import static com.hazelcast.jet.core.processor.SourceProcessors.readMapP;
 import static com.hazelcast.jet.function.Functions.entryKey;
 import static com.hazelcast.jet.function.Functions.wholeItem;
 import static java.lang.Runtime.getRuntime;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Collections.singletonList;
-import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+import static shared.SpillingCountP.KeyFormat.WORDS;
+import static shared.SpillingCountP.spillingAccumulateP;
+import static shared.SpillingCountP.spillingCombineP;
+import static shared.WriteMapBatchedP.writeMapBatchedP;
+import static wordcount.CountNGramsP.countNGramsP;
+import static wordcount.CountWordsP.accumulateWordsP;
+import static wordcount.CountWordsP.combineWordCountsP;
+import static wordcount.HeavyHitters.heavyHitters;
+import static wordcount.NGramCounter.COUNT;
+import static wordcount.NGramCounter.KEY;
+import static wordcount.NGramTokenizeP.nGramTokenizeP;
+import static wordcount.ReadBooksP.readBookChunksP;
+import static wordcount.ReadBooksP.readBooksP;
+import static wordcount.ResolveNGramsP.resolveNGramsP;
+import static wordcount.TokenizeAndCountP.tokenizeAndCountP;
+import static wordcount.TopKP.topKP;
 
 /**
  * Analyzes a set of documents and finds the number of occurrences of each word
@@ -64,12 +89,6 @@ import static java.util.Comparator.comparingLong;
  *               | source |
  *                --------
  *                    |
- *            (docId, docName)
- *                    V
- *               -----------
- *              | doc-lines |
- *               -----------
- *                    |
  *                 (line)
  *                    V
  *               ----------
@@ -94,20 +113,25 @@ import static java.util.Comparator.comparingLong;
  *                | sink |
  *                 ------
  * </pre>
+ * {@code combine} also sends its output to a top-K branch, which finds the
+ * most frequent words inside the cluster:
+ * <pre>
+ *       ---------            ------------            -------            ----------
+ *      | combine | -------> | local-topK | -------> | topK  | -------> | top-sink |
+ *       ---------            ------------            -------            ----------
+ *            (word, totalCount)      (word, totalCount)     (word, totalCount)
+ * </pre>
  * This is how the DAG works:
  * <ul><li>
  *     In the {@code sample-data} module there are some books in plain text
  *     format.
  * </li><li>
- *     Each book is assigned an ID and a Hazelcast distributed map is built that
- *     maps from document ID to document name. This is the DAG's source.
- * </li><li>
- *     {@code source} emits {@code (docId, docName)} pairs. On each cluster
- *     member this vertex observes only the map entries stored locally on that
- *     member. Therefore each member sees a unique subset of all the documents.
- * </li><li>
- *     {@code doc-lines} reads each document and emits its lines of text as
- *     {@code (docId, line)} pairs.
+ *     {@code source} reads the books and emits their lines of text. It uses
+ *     {@link ReadBooksP}, which splits the book files into line-aligned byte
+ *     ranges and deals them out to all its processors in the cluster. Each
+ *     processor memory-maps its ranges, so the reading runs on all the
+ *     cooperative threads of all the members instead of a single thread per
+ *     member.
  * </li><li>
  *     Lines are sent over a <em>local</em> edge to the {@code tokenize} vertex.
  *     This means that the tuples stay within the member where they were created
@@ -115,7 +139,9 @@ import static java.util.Comparator.comparingLong;
  *     edge isn't partitioned, the choice of processor is arbitrary but fair and
  *     balances the traffic to each processor.
  * </li><li>
- *     {@code tokenize} splits each line into words and emits them.
+ *     {@code tokenize} splits each line into lowercase words and emits them.
+ *     It uses {@link TokenizeP}, which scans the characters of the line
+ *     directly and only allocates the emitted words.
  * </li><li>
  *     Words are sent over a <em>partitioned local</em> edge which routes
  *     all the items with the same word to the same local {@code reduce}
@@ -123,7 +149,9 @@ import static java.util.Comparator.comparingLong;
  * </li><li>
  *     {@code reduce} collates tuples by word and maintains the count of each
  *     seen word. After having received all the input from {@code tokenize}, it
- *     emits tuples of the form {@code (word, localCount)}.
+ *     emits tuples of the form {@code (word, localCount)}. It keeps the counts
+ *     in a {@link wordcount.WordCounter}, a primitive open-addressing table
+ *     that doesn't allocate any objects per word.
  * </li><li>
  *     Tuples with local sums are sent to {@code combine} over a <em>distributed
  *     partitioned</em> edge. This means that for each word there will be a single
@@ -133,50 +161,284 @@ import static java.util.Comparator.comparingLong;
  *     {@code combine} combines the partial sums into totals and emits them.
  * </li><li>
  *     Finally, the {@code sink} vertex stores the result in the output Hazelcast
- *     map, named {@value #COUNTS}.
+ *     map, named {@value #COUNTS}. It uses {@link shared.WriteMapBatchedP},
+ *     which buffers the entries for each partition and writes them with a
+ *     {@code putAll} per partition, and logs the throughput it achieved.
+ *     Run with {@code -DstockSink=true} to use the stock {@code writeMapP}
+ *     sink instead, for comparison.
+ * </li><li>
+ *     {@code local-topK} receives the totals from the local {@code combine}
+ *     processors and keeps only the {@value #TOP_K} most frequent words in a
+ *     bounded heap (see {@link TopKP}). When it completes, it sends them to
+ *     {@code topK} over a <em>distributed all-to-one</em> edge.
+ * </li><li>
+ *     {@code topK} is a single processor in the whole cluster that merges the
+ *     partial results into the final top {@value #TOP_K} words, highest count
+ *     first. {@code top-sink} stores them, in that order, in the Hazelcast
+ *     list named {@value #TOP_WORDS}, so printing the results doesn't have to
+ *     fetch and sort the whole {@value #COUNTS} map.
  * </li></ul>
+ * If you run the sample with {@code -DpreAggregate=true}, {@code tokenize}
+ * uses {@link TokenizeAndCountP} to count the words of its lines in a local
+ * table of up to {@value #PRE_AGGREGATE_WORDS} distinct words. Whenever the
+ * table fills up, and once more at the end, it flushes its contents as
+ * {@code (word, partialCount)} entries, so the partitioned edge to {@code
+ * accumulate} carries far fewer items than one per word occurrence. {@code
+ * accumulate} then sums up the partial counts instead of counting words.
+ * <p>
+ * If you run the sample with {@code -DbyteLevel=true}, the words are counted
+ * without decoding the books into {@code String} lines. {@code source}
+ * emits line-aligned chunks of raw UTF-8 bytes (see {@link
+ * ReadBooksP#readBookChunksP}) and {@code tokenize} uses {@link
+ * CountWordBytesP} to find and count the words directly on the bytes. Like
+ * with pre-aggregation, {@code tokenize} emits {@code (word, partialCount)}
+ * entries, but only once, when it completes.
+ * <p>
+ * If you run the sample with {@code -DbatchedShuffle=true}, {@code
+ * accumulate} sends its counts to {@code combine} in compact per-partition
+ * batches instead of one entry per word. It assigns each word to a
+ * partition by a 64-bit hash and emits a single {@link WordCountBatch} per
+ * partition: the words as UTF-8 bytes, each with a variable-length encoded
+ * count. {@code combine} sums the counts keyed by a hash of the bytes and
+ * only turns the words back into strings when it emits the totals to the
+ * sink.
+ * <p>
+ * If you run the sample with {@code -DspillBudgetMb=<megabytes>}, {@code
+ * accumulate} and {@code combine} use {@link SpillingCountP}, which keeps
+ * the heap taken by each processor's table of counts within the given budget.
+ * Whenever the table goes over it, the processor writes it to a sorted
+ * temporary file and starts over. When it completes, it merges the files.
+ * This way the job finishes even if the distinct words don't fit into the
+ * heap.
+ * <p>
+ * If you run the sample with {@code -Dapproximate=true}, it only finds the
+ * most frequent words, approximately, in memory that doesn't grow with the
+ * number of distinct words:
+ * <pre>
+ *   source -> tokenize -> accumulate ==> combine -> explode -> sink
+ *                                                        \-> top-sink
+ * </pre>
+ * Each {@code accumulate} processor keeps a {@link HeavyHitters} summary of
+ * its words: a Space-Saving list of {@value #APPROXIMATE_CAPACITY} words
+ * and a Count-Min Sketch with the relative error {@value
+ * #APPROXIMATE_EPSILON} (exceeded with the probability {@value
+ * #APPROXIMATE_DELTA}). The summaries are sent over a <em>distributed
+ * all-to-one</em> edge to a single {@code combine} processor that merges
+ * them. {@code explode} emits the resulting {@code (word, estimatedCount)}
+ * entries, highest count first, to the {@value #COUNTS} map and the
+ * {@value #TOP_WORDS} list. The estimated counts are never lower than the
+ * exact ones.
+ * <p>
+ * If you run the sample with {@code -Dngrams=<n>}, for example 2 or 3, it
+ * finds the most frequent sequences of {@code n} consecutive words within a
+ * line instead of single words:
+ * <pre>
+ *   source -> tokenize ==> combine ==> topK -> top-sink
+ * </pre>
+ * {@code tokenize} uses {@link NGramTokenizeP}, which identifies each n-gram
+ * with a 64-bit rolling hash of its word ids instead of concatenating the
+ * words, pre-aggregates the counts in a primitive table and sends {@code
+ * (key, partialCount)} records to {@code combine} over a distributed edge
+ * partitioned by that key. {@code combine} sums up the counts in a table
+ * keyed by the hash and sends just its top {@value #TOP_K} records to
+ * {@code topK}, which merges them and stores them in the list named
+ * {@value #TOP_NGRAM_RECORDS}. No text is built in this job.
+ * <p>
+ * A second job then reads the books again to find the text of only those
+ * {@value #TOP_K} keys:
+ * <pre>
+ *   source -> resolve -> sink
+ * </pre>
+ * {@code resolve} uses {@link wordcount.ResolveNGramsP}, which computes the
+ * keys of the n-grams the same way and emits a {@code (key, text)} entry
+ * the first time it meets one of the top keys. {@code sink} stores them in
+ * the map named {@value #NGRAM_TEXTS}, where the entries that different
+ * processors found for the same key overwrite each other. Finally the
+ * sample pairs the texts with the counts and stores the results in the
+ * {@value #TOP_WORDS} list.
  */
 public class WordCountCoreApi {
 
-    private static final String DOCID_NAME = "docId_name";
-    private static final String COUNTS = "counts";
+    static final String COUNTS = "counts";
+    static final String TOP_WORDS = "top-words";
+    private static final String TOP_NGRAM_RECORDS = "top-ngram-records";
+    private static final String NGRAM_TEXTS = "ngram-texts";
+    private static final int TOP_K = 100;
+    private static final int PRE_AGGREGATE_WORDS = 1 << 16;
+    private static final int SINK_BATCH_SIZE = 1024;
+    private static final long SINK_MAX_DELAY_MILLIS = 100;
+    private static final boolean STOCK_SINK = Boolean.getBoolean("stockSink");
+    private static final boolean PRE_AGGREGATE = Boolean.getBoolean("preAggregate");
+    private static final boolean BYTE_LEVEL = Boolean.getBoolean("byteLevel");
+    private static final boolean PARTIAL_COUNTS = PRE_AGGREGATE || BYTE_LEVEL;
+    private static final boolean BATCHED_SHUFFLE = Boolean.getBoolean("batchedShuffle");
+    private static final long SPILL_BUDGET_BYTES = Long.getLong("spillBudgetMb", 0) << 20;
+    private static final int APPROXIMATE_CAPACITY = 1000;
+    private static final double APPROXIMATE_EPSILON = 0.0001;
+    private static final double APPROXIMATE_DELTA = 0.01;
+    private static final boolean APPROXIMATE = Boolean.getBoolean("approximate");
+    private static final int NGRAM_LENGTH = Integer.getInteger("ngrams", 1);
 
     private JetInstance jet;
+    private List<String> bookNames;
 
     @Nonnull
-    private static DAG buildDag() {
-        final Pattern delimiter = Pattern.compile("\\W+");
+    private static DAG buildDag(List<String> bookNames) {
+        return buildDag(bookNames, UnaryOperator.identity());
+    }
 
+    /**
+     * Builds the word count DAG and lets the caller wrap the processors of
+     * the {@code accumulate} vertex. {@link WordCountScaling} uses it to
+     * meter what they send to the other members.
+     */
+    @Nonnull
+    static DAG buildDag(List<String> bookNames, UnaryOperator<SupplierEx<Processor>> wrapAccumulate) {
         DAG dag = new DAG();
-        // nil -> (docId, docName)
-        Vertex source = dag.newVertex("source", readMapP(DOCID_NAME));
-        // (docId, docName) -> lines
-        Vertex docLines = dag.newVertex("doc-lines",
-                // we use flatMapUsingContextP for the sake of being able to mark it as non-cooperative
-                flatMapUsingContextP(
-                        ContextFactory.withCreateFn(jet -> null).toNonCooperative(),
-                        (Object ctx, Entry<?, String> e) -> traverseStream(docLines(e.getValue())))
-        );
-        // line -> words
-        Vertex tokenize = dag.newVertex("tokenize",
-                flatMapP((String line) -> traverseArray(delimiter.split(line.toLowerCase()))
-                        .filter(word -> !word.isEmpty()))
-        );
-        // word -> (word, count)
-        Vertex accumulate = dag.newVertex("accumulate", accumulateByKeyP(singletonList(wholeItem()), counting()));
-        // (word, count) -> (word, count)
-        Vertex combine = dag.newVertex("combine", combineByKeyP(counting(), Util::entry));
+        Vertex source;
+        Vertex tokenize;
+        if (BYTE_LEVEL) {
+            // nil -> chunks of UTF-8 bytes
+            source = dag.newVertex("source", readBookChunksP(bookNames));
+            // chunk -> (word, partialCount)
+            tokenize = dag.newVertex("tokenize", CountWordBytesP::new);
+        } else {
+            // nil -> lines
+            source = dag.newVertex("source", readBooksP(bookNames));
+            tokenize = PRE_AGGREGATE
+                    // line -> (word, partialCount)
+                    ? dag.newVertex("tokenize", tokenizeAndCountP(PRE_AGGREGATE_WORDS))
+                    // line -> words
+                    : dag.newVertex("tokenize", TokenizeP::new);
+        }
+        Vertex accumulate;
+        Vertex combine;
+        Edge accumulateToCombine;
+        if (BATCHED_SHUFFLE) {
+            // word or (word, partialCount) -> batch of (word, count), one per partition
+            accumulate = dag.newVertex("accumulate", wrapAccumulate.apply(EncodeWordCountsP::new));
+            // batch of (word, count) -> (word, count)
+            combine = dag.newVertex("combine", DecodeWordCountsP::new);
+            accumulateToCombine = between(accumulate, combine)
+                    .distributed()
+                    .partitioned(WordCountBatch::partitionId, WordCountBatch.PARTITION_ID);
+        } else {
+            // word or (word, partialCount) -> (word, count)
+            accumulate = dag.newVertex("accumulate", wrapAccumulate.apply(countWordsP(PARTIAL_COUNTS)));
+            // (word, count) -> (word, count)
+            combine = dag.newVertex("combine", countWordsP(true));
+            accumulateToCombine = between(accumulate, combine)
+                    .distributed()
+                    .partitioned(entryKey());
+        }
+        Edge tokenizeToAccumulate = PARTIAL_COUNTS
+                ? between(tokenize, accumulate).partitioned(entryKey(), HASH_CODE)
+                : between(tokenize, accumulate).partitioned(wholeItem(), HASH_CODE);
         // (word, count) -> nil
-        Vertex sink = dag.newVertex("sink", writeMapP("counts"));
+        Vertex sink = dag.newVertex("sink", STOCK_SINK
+                ? writeMapP(COUNTS)
+                : writeMapBatchedP(COUNTS, SINK_BATCH_SIZE, SINK_MAX_DELAY_MILLIS));
+        // (word, count) -> top (word, count) of each processor
+        Vertex localTopK = dag.newVertex("local-topK", topKP(TOP_K));
+        // top (word, count) of each processor -> top (word, count) overall
+        Vertex topK = dag.newVertex("topK", topKP(TOP_K)).localParallelism(1);
+        // (word, count) -> nil
+        Vertex topSink = dag.newVertex("top-sink", writeListP(TOP_WORDS)).localParallelism(1);
+
+        return dag.edge(between(source, tokenize))
+                  .edge(tokenizeToAccumulate)
+                  .edge(accumulateToCombine)
+                  .edge(between(combine, sink))
+                  .edge(from(combine, 1).to(localTopK))
+                  .edge(between(localTopK, topK)
+                          .distributed()
+                          .allToOne())
+                  .edge(between(topK, topSink));
+    }
+
+    /**
+     * Returns the supplier of {@code accumulate} or {@code combine}
+     * processors, depending on whether they receive partial counts or words.
+     */
+    @Nonnull
+    private static SupplierEx<Processor> countWordsP(boolean partialCounts) {
+        if (SPILL_BUDGET_BYTES > 0) {
+            return partialCounts
+                    ? spillingCombineP(WORDS, SPILL_BUDGET_BYTES)
+                    : spillingAccumulateP(WORDS, SPILL_BUDGET_BYTES);
+        }
+        return partialCounts ? combineWordCountsP() : accumulateWordsP();
+    }
+
+    @Nonnull
+    private static DAG buildApproximateDag(List<String> bookNames) {
+        DAG dag = new DAG();
+        // nil -> lines
+        Vertex source = dag.newVertex("source", readBooksP(bookNames));
+        // line -> words
+        Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
+        // words -> heavy hitters summary
+        Vertex accumulate = dag.newVertex("accumulate",
+                accumulateP(heavyHitters(APPROXIMATE_CAPACITY, APPROXIMATE_EPSILON, APPROXIMATE_DELTA)));
+        // heavy hitters summaries -> list of (word, estimatedCount)
+        Vertex combine = dag.newVertex("combine",
+                combineP(heavyHitters(APPROXIMATE_CAPACITY, APPROXIMATE_EPSILON, APPROXIMATE_DELTA)))
+                .localParallelism(1);
+        // list of (word, estimatedCount) -> (word, estimatedCount)
+        Vertex explode = dag.newVertex("explode",
+                flatMapP((List<Entry<String, Long>> heavyHitters) -> traverseIterable(heavyHitters)))
+                .localParallelism(1);
+        // (word, estimatedCount) -> nil
+        Vertex sink = dag.newVertex("sink", writeMapP(COUNTS));
+        // (word, estimatedCount) -> nil
+        Vertex topSink = dag.newVertex("top-sink", writeListP(TOP_WORDS)).localParallelism(1);
 
-        return dag.edge(between(source.localParallelism(1), docLines))
-                  .edge(between(docLines.localParallelism(1), tokenize))
-                  .edge(between(tokenize, accumulate)
-                          .partitioned(wholeItem(), HASH_CODE))
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, accumulate))
                   .edge(between(accumulate, combine)
                           .distributed()
-                          .partitioned(entryKey()))
-                  .edge(between(combine, sink));
+                          .allToOne())
+                  .edge(between(combine, explode))
+                  .edge(between(explode, sink))
+                  .edge(from(explode, 1).to(topSink));
+    }
+
+    @Nonnull
+    private static DAG buildNGramDag(List<String> bookNames) {
+        DAG dag = new DAG();
+        // nil -> lines
+        Vertex source = dag.newVertex("source", readBooksP(bookNames));
+        // line -> (key, partialCount)
+        Vertex tokenize = dag.newVertex("tokenize", nGramTokenizeP(NGRAM_LENGTH, PRE_AGGREGATE_WORDS));
+        // (key, partialCount) -> top (key, count) of each processor
+        Vertex combine = dag.newVertex("combine", countNGramsP(TOP_K));
+        // top (key, count) of each processor -> top (key, count) overall
+        Vertex topK = dag.newVertex("topK", countNGramsP(TOP_K)).localParallelism(1);
+        // (key, count) -> nil
+        Vertex topSink = dag.newVertex("top-sink", writeListP(TOP_NGRAM_RECORDS)).localParallelism(1);
+
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, combine)
+                          .distributed()
+                          .partitioned((long[] record) -> record[KEY]))
+                  .edge(between(combine, topK)
+                          .distributed()
+                          .allToOne())
+                  .edge(between(topK, topSink));
+    }
+
+    @Nonnull
+    private static DAG buildNGramTextDag(List<String> bookNames, long[] keys) {
+        DAG dag = new DAG();
+        // nil -> lines
+        Vertex source = dag.newVertex("source", readBooksP(bookNames));
+        // line -> (key, ngram) for the given keys
+        Vertex resolve = dag.newVertex("resolve", resolveNGramsP(NGRAM_LENGTH, keys));
+        // (key, ngram) -> nil
+        Vertex sink = dag.newVertex("sink", writeMapP(NGRAM_TEXTS));
+
+        return dag.edge(between(source, resolve))
+                  .edge(between(resolve, sink));
     }
 
     public static void main(String[] args) throws Exception {
@@ -189,10 +451,25 @@ public class WordCountCoreApi {
             setup();
             System.out.print("\nCounting words... ");
             long start = System.nanoTime();
-            jet.newJob(buildDag()).join();
+            if (NGRAM_LENGTH > 1) {
+                countNGrams();
+            } else {
+                jet.newJob(selectDag()).join();
+            }
             System.out.print("done in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " milliseconds.");
             printResults();
+            if (NGRAM_LENGTH > 1) {
+                return;
+            }
             IMap<String, Long> counts = jet.getMap(COUNTS);
+            if (APPROXIMATE) {
+                Long theCount = counts.get("the");
+                if (theCount == null || theCount < 951_129) {
+                    throw new AssertionError("Estimated count of 'the' is below the exact one");
+                }
+                System.out.println("Estimated count of 'the' is " + theCount + ", the exact one is 951129");
+                return;
+            }
             if (counts.get("the") != 951_129) {
                 throw new AssertionError("Wrong count of 'the'");
             }
@@ -202,6 +479,29 @@ public class WordCountCoreApi {
         }
     }
 
+    /**
+     * Counts the n-grams by their keys, then runs a second job to find the
+     * text of just the top ones and stores the top {@code (ngram, count)}
+     * entries in the {@value #TOP_WORDS} list, highest count first.
+     */
+    private void countNGrams() {
+        jet.newJob(buildNGramDag(bookNames)).join();
+        List<long[]> topRecords = new ArrayList<>(jet.<long[]>getList(TOP_NGRAM_RECORDS));
+        long[] keys = topRecords.stream().mapToLong(record -> record[KEY]).toArray();
+        jet.newJob(buildNGramTextDag(bookNames, keys)).join();
+        IMap<Long, String> texts = jet.getMap(NGRAM_TEXTS);
+        TopWords topWords = new TopWords(TOP_K);
+        for (long[] record : topRecords) {
+            topWords.offer(entry(texts.get(record[KEY]), record[COUNT]));
+        }
+        jet.getList(TOP_WORDS).addAll(topWords.sorted());
+    }
+
+    @Nonnull
+    private DAG selectDag() {
+        return APPROXIMATE ? buildApproximateDag(bookNames) : buildDag(bookNames);
+    }
+
     private void setup() {
         JetConfig cfg = new JetConfig();
         cfg.setInstanceConfig(new InstanceConfig().setCooperativeThreadCount(
@@ -212,22 +512,20 @@ public class WordCountCoreApi {
         System.out.println("Creating Jet instance 2");
         Jet.newJetInstance(cfg);
         System.out.println("These books will be analyzed:");
-        final IMap<Long, String> docId2Name = jet.getMap(DOCID_NAME);
-        final long[] docId = {0};
-        docFilenames().peek(System.out::println).forEach(line -> docId2Name.put(++docId[0], line));
+        try (Stream<String> names = docFilenames()) {
+            bookNames = names.peek(System.out::println).collect(toList());
+        }
     }
 
     private void printResults() {
-        final int limit = 100;
-        System.out.format(" Top %d entries are:%n", limit);
-        final Map<String, Long> counts = jet.getMap(COUNTS);
+        System.out.format(" Top %d entries are:%n", TOP_K);
+        final List<Entry<String, Long>> topWords = jet.getList(TOP_WORDS);
         System.out.println("/-------+---------\\");
         System.out.println("| Count | Word    |");
         System.out.println("|-------+---------|");
-        counts.entrySet().stream()
-              .sorted(comparingLong(Entry<String, Long>::getValue).reversed())
-              .limit(limit)
-              .forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
+        topWords.stream()
+                .limit(TOP_K)
+                .forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
         System.out.println("\\-------+---------/");
     }
 
@@ -237,14 +535,6 @@ public class WordCountCoreApi {
         return r.lines().onClose(() -> close(r));
     }
 
-    private static Stream<String> docLines(String name) {
-        try {
-            return Files.lines(Paths.get(WordCountCoreApi.class.getResource("books/" + name).toURI()));
-        } catch (IOException | URISyntaxException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private static void close(Closeable c) {
         try {
             c.close();
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.PartitionService;
+import com.hazelcast.jet.Jet;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.config.EdgeConfig;
+import com.hazelcast.jet.config.InstanceConfig;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Edge;
+import com.hazelcast.jet.core.Inbox;
+import com.hazelcast.jet.core.Outbox;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.core.Vertex;
+import com.hazelcast.jet.core.Watermark;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures how the word count job scales with the size of the cluster.
+ * For every combination of the number of members, the number of
+ * cooperative threads per member and the edge queue size, it starts the
+ * members as separate JVMs on this machine, runs the word count DAG of
+ * {@link WordCountCoreApi} from a client and prints a CSV line with:
+ * <ul><li>
+ *     the job duration and the input throughput in MB/s
+ * </li><li>
+ *     the CPU utilization of each member during the job, in cores
+ * </li><li>
+ *     the estimated number of bytes the {@code accumulate} vertex sent over
+ *     the distributed edge to {@code combine} processors on other members
+ * </li></ul>
+ * The arguments are the maximum number of members, a comma-separated list
+ * of cooperative thread counts and a comma-separated list of queue sizes,
+ * for example:
+ * <pre>
+ * java -cp ... WordCountScaling 4 1,2,4 256,1024 > scaling.csv
+ * </pre>
+ * Each configuration is run once to warm up and {@value #MEASURED_RUNS}
+ * more times, and the fastest run is reported.
+ * <p>
+ * The DAG comes from {@link WordCountCoreApi}, so the system properties
+ * that select its variants apply here as well. The benchmark only wraps
+ * the {@code accumulate} processors to meter their output and sets the
+ * queue size of all the edges. The shipped bytes are only estimated for
+ * {@code (word, count)} entries, so they are zero with {@code
+ * -DbatchedShuffle=true}.
+ */
+public class WordCountScaling {
+
+    private static final String GROUP_NAME = "wordcount-scaling";
+    private static final int BASE_PORT = 5701;
+    private static final int MEASURED_RUNS = 3;
+    private static final long MEMBER_START_TIMEOUT_NANOS = MINUTES.toNanos(2);
+    /** Estimated serialized size of a {@code (word, count)} entry, without the word. */
+    private static final int ENTRY_OVERHEAD_BYTES = 24;
+
+    /** The bytes sent to other members by the {@link ShippingMeterP}s in this JVM. */
+    private static final AtomicLong SHIPPED_BYTES = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("hazelcast.logging.type", "log4j");
+        if (args.length == 2 && args[0].equals("member")) {
+            startMember(Integer.parseInt(args[1]));
+            return;
+        }
+        int maxMembers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        List<Integer> threadCounts = parseList(args.length > 1 ? args[1] : "1,2,4");
+        List<Integer> queueSizes = parseList(args.length > 2 ? args[2] : "1024");
+        List<String> bookNames = bookNames();
+        long inputBytes = inputSize(bookNames);
+        System.out.println("members,cooperativeThreads,queueSize,millis,inputMBps,memberCpuCores,shippedBytes");
+        for (int members = 1; members <= maxMembers; members++) {
+            for (int threads : threadCounts) {
+                runCluster(members, threads, queueSizes, bookNames, inputBytes);
+            }
+        }
+    }
+
+    private static void runCluster(
+            int memberCount, int threadCount, List<Integer> queueSizes, List<String> bookNames, long inputBytes
+    ) throws Exception {
+        List<Process> members = new ArrayList<>();
+        JetInstance client = null;
+        try {
+            for (int i = 0; i < memberCount; i++) {
+                members.add(forkMember(threadCount));
+            }
+            client = Jet.newJetClient(clientConfig(memberCount));
+            awaitClusterSize(client, memberCount);
+            for (int queueSize : queueSizes) {
+                DAG dag = buildDag(bookNames, queueSize);
+                run(client, dag);
+                Result best = null;
+                for (int i = 0; i < MEASURED_RUNS; i++) {
+                    Result result = run(client, dag);
+                    if (best == null || result.nanos < best.nanos) {
+                        best = result;
+                    }
+                }
+                System.out.println(memberCount + "," + threadCount + "," + queueSize + ","
+                        + NANOSECONDS.toMillis(best.nanos) + ","
+                        + String.format("%.1f", inputBytes / 1e6 / (best.nanos / 1e9)) + ","
+                        + best.memberCpuCores + "," + best.shippedBytes);
+            }
+        } finally {
+            if (client != null) {
+                client.shutdown();
+            }
+            for (Process member : members) {
+                member.destroy();
+                member.waitFor();
+            }
+        }
+    }
+
+    private static Result run(JetInstance client, DAG dag) throws Exception {
+        client.getMap(WordCountCoreApi.COUNTS).clear();
+        client.getList(WordCountCoreApi.TOP_WORDS).clear();
+        Map<Member, long[]> before = memberStats(client);
+        long start = System.nanoTime();
+        client.newJob(dag).join();
+        long nanos = System.nanoTime() - start;
+        Map<Member, long[]> after = memberStats(client);
+        List<String> cpuCores = new ArrayList<>();
+        long shippedBytes = 0;
+        for (Entry<Member, long[]> e : after.entrySet()) {
+            long[] b = before.get(e.getKey());
+            cpuCores.add(String.format("%.2f", (e.getValue()[0] - b[0]) / (double) nanos));
+            shippedBytes += e.getValue()[1];
+        }
+        return new Result(nanos, String.join(";", cpuCores), shippedBytes);
+    }
+
+    /**
+     * Returns the process CPU time and the shipped bytes since the last call
+     * for each member.
+     */
+    private static Map<Member, long[]> memberStats(JetInstance client) throws Exception {
+        Map<Member, Future<long[]>> futures = client.getHazelcastInstance()
+                                                    .getExecutorService(GROUP_NAME)
+                                                    .submitToAllMembers(new MemberStats());
+        Map<Member, long[]> stats = new HashMap<>();
+        for (Entry<Member, Future<long[]>> e : futures.entrySet()) {
+            stats.put(e.getKey(), e.getValue().get());
+        }
+        return stats;
+    }
+
+    @Nonnull
+    private static DAG buildDag(List<String> bookNames, int queueSize) {
+        DAG dag = WordCountCoreApi.buildDag(bookNames, ShippingMeterP::meteredP);
+        EdgeConfig edgeConfig = new EdgeConfig().setQueueSize(queueSize);
+        for (Vertex vertex : dag) {
+            for (Edge edge : dag.getOutboundEdges(vertex.getName())) {
+                edge.setConfig(edgeConfig);
+            }
+        }
+        return dag;
+    }
+
+    private static void startMember(int threadCount) {
+        JetConfig cfg = new JetConfig();
+        cfg.setInstanceConfig(new InstanceConfig().setCooperativeThreadCount(threadCount));
+        cfg.getHazelcastConfig().getGroupConfig().setName(GROUP_NAME);
+        JoinConfig join = cfg.getHazelcastConfig().getNetworkConfig().setPort(BASE_PORT).getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+        Jet.newJetInstance(cfg);
+    }
+
+    private static Process forkMember(int threadCount) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                WordCountScaling.class.getName(), "member", String.valueOf(threadCount))
+                .redirectOutput(new File("member-" + System.nanoTime() + ".log"))
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static ClientConfig clientConfig(int memberCount) {
+        ClientConfig cfg = new ClientConfig();
+        cfg.getGroupConfig().setName(GROUP_NAME);
+        for (int i = 0; i < memberCount; i++) {
+            cfg.getNetworkConfig().addAddress("127.0.0.1:" + (BASE_PORT + i));
+        }
+        cfg.getNetworkConfig().setConnectionAttemptLimit(0);
+        return cfg;
+    }
+
+    private static void awaitClusterSize(JetInstance client, int memberCount) throws InterruptedException {
+        long deadline = System.nanoTime() + MEMBER_START_TIMEOUT_NANOS;
+        while (client.getCluster().getMembers().size() < memberCount) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The cluster didn't reach " + memberCount + " members");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static List<Integer> parseList(String list) {
+        List<Integer> result = new ArrayList<>();
+        for (String s : list.split(",")) {
+            result.add(Integer.parseInt(s.trim()));
+        }
+        return result;
+    }
+
+    private static List<String> bookNames() throws IOException {
+        ClassLoader cl = WordCountScaling.class.getClassLoader();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(cl.getResourceAsStream("books"), UTF_8))) {
+            return r.lines().collect(toList());
+        }
+    }
+
+    private static long inputSize(List<String> bookNames) throws IOException {
+        ClassLoader cl = WordCountScaling.class.getClassLoader();
+        byte[] buf = new byte[1 << 16];
+        long size = 0;
+        for (String name : bookNames) {
+            try (InputStream in = cl.getResourceAsStream("books/" + name)) {
+                int n = in.read(buf);
+                while (n >= 0) {
+                    size += n;
+                    n = in.read(buf);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static final class Result {
+        final long nanos;
+        final String memberCpuCores;
+        final long shippedBytes;
+
+        Result(long nanos, String memberCpuCores, long shippedBytes) {
+            this.nanos = nanos;
+            this.memberCpuCores = memberCpuCores;
+            this.shippedBytes = shippedBytes;
+        }
+    }
+
+    /**
+     * Returns the CPU time of the member's process and the bytes shipped by
+     * its {@link ShippingMeterP}s since the previous call.
+     */
+    private static final class MemberStats implements Callable<long[]>, Serializable {
+        @Override
+        public long[] call() {
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            return new long[] {os.getProcessCpuTime(), SHIPPED_BYTES.getAndSet(0)};
+        }
+    }
+
+    /**
+     * Wraps a processor that emits {@code (word, count)} entries over a
+     * distributed partitioned edge and estimates how many bytes of them go
+     * to other members: those whose partition isn't owned by this member.
+     * Apart from metering the output, it forwards every call to the wrapped
+     * processor.
+     */
+    private static final class ShippingMeterP implements Processor {
+        private final Processor delegate;
+        private PartitionService partitionService;
+        private long shippedBytes;
+
+        ShippingMeterP(Processor delegate) {
+            this.delegate = delegate;
+        }
+
+        static SupplierEx<Processor> meteredP(SupplierEx<Processor> supplier) {
+            return () -> new ShippingMeterP(supplier.get());
+        }
+
+        @Override
+        public boolean isCooperative() {
+            return delegate.isCooperative();
+        }
+
+        @Override
+        public void init(@Nonnull Outbox outbox, @Nonnull Context context) throws Exception {
+            partitionService = context.jetInstance().getHazelcastInstance().getPartitionService();
+            delegate.init(new MeteringOutbox(outbox), context);
+        }
+
+        @Override
+        public void process(int ordinal, @Nonnull Inbox inbox) {
+            delegate.process(ordinal, inbox);
+        }
+
+        @Override
+        public boolean tryProcessWatermark(@Nonnull Watermark watermark) {
+            return delegate.tryProcessWatermark(watermark);
+        }
+
+        @Override
+        public boolean tryProcess() {
+            return delegate.tryProcess();
+        }
+
+        @Override
+        public boolean completeEdge(int ordinal) {
+            return delegate.completeEdge(ordinal);
+        }
+
+        @Override
+        public boolean complete() {
+            if (!delegate.complete()) {
+                return false;
+            }
+            SHIPPED_BYTES.addAndGet(shippedBytes);
+            return true;
+        }
+
+        @Override
+        public boolean saveToSnapshot() {
+            return delegate.saveToSnapshot();
+        }
+
+        @Override
+        public void restoreFromSnapshot(@Nonnull Inbox inbox) {
+            delegate.restoreFromSnapshot(inbox);
+        }
+
+        @Override
+        public boolean finishSnapshotRestore() {
+            return delegate.finishSnapshotRestore();
+        }
+
+        @Override
+        public void close() throws Exception {
+            delegate.close();
+        }
+
+        private void meter(Object item) {
+            if (!(item instanceof Entry)) {
+                return;
+            }
+            Object word = ((Entry<?, ?>) item).getKey();
+            if (!partitionService.getPartition(word).getOwner().localMember()) {
+                shippedBytes += ENTRY_OVERHEAD_BYTES + word.toString().getBytes(UTF_8).length;
+            }
+        }
+
+        private final class MeteringOutbox implements Outbox {
+            private final Outbox outbox;
+
+            MeteringOutbox(Outbox outbox) {
+                this.outbox = outbox;
+            }
+
+            @Override
+            public int bucketCount() {
+                return outbox.bucketCount();
+            }
+
+            @Override
+            public boolean offer(int ordinal, @Nonnull Object item) {
+                return outbox.offer(ordinal, item) && metered(item);
+            }
+
+            @Override
+            public boolean offer(@Nonnull int[] ordinals, @Nonnull Object item) {
+                return outbox.offer(ordinals, item) && metered(item);
+            }
+
+            @Override
+            public boolean offerToSnapshot(@Nonnull Object key, @Nonnull Object value) {
+                return outbox.offerToSnapshot(key, value);
+            }
+
+            @Override
+            public boolean hasUnfinishedItem() {
+                return outbox.hasUnfinishedItem();
+            }
+
+            private boolean metered(Object item) {
+                meter(item);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.jet.Jet;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.InstanceConfig;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Vertex;
+import shared.TokenizeP;
+import wordcount.RunningCountsP;
+import wordcount.StreamBooksP;
+import wordcount.TopWords;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.hazelcast.jet.config.ProcessingGuarantee.EXACTLY_ONCE;
+import static com.hazelcast.jet.core.Edge.between;
+import static com.hazelcast.jet.core.processor.SinkProcessors.writeMapP;
+import static com.hazelcast.jet.function.Functions.wholeItem;
+import static java.lang.Runtime.getRuntime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static wordcount.RunningCountsP.runningCountsP;
+import static wordcount.StreamBooksP.streamBooksP;
+
+/**
+ * A streaming variant of {@code WordCountCoreApi} for a corpus that keeps
+ * growing. Instead of counting all the books again whenever some are added,
+ * the job watches a directory, reads only the files and the bytes that are
+ * new, and keeps the running totals in the {@value #COUNTS} map up to date:
+ * <pre>
+ *   source -> tokenize ==> count -> sink
+ * </pre>
+ * <ul><li>
+ *     {@code source} uses {@link StreamBooksP}, which deals out the files of
+ *     the directory to all its processors in the cluster, polls them for
+ *     new complete lines and remembers the offset up to which it has read
+ *     each file.
+ * </li><li>
+ *     {@code tokenize} splits each line into lowercase words, just like in
+ *     the batch job.
+ * </li><li>
+ *     Words are sent to {@code count} over a <em>distributed partitioned</em>
+ *     edge, so each word has a single {@code count} processor in the cluster.
+ *     {@code count} uses {@link RunningCountsP}, which adds the new words to
+ *     its running totals and emits only the totals that have changed.
+ * </li><li>
+ *     {@code sink} puts the changed totals into the {@value #COUNTS} map,
+ *     overwriting the old ones.
+ * </li></ul>
+ * The job runs with the exactly-once processing guarantee: every {@value
+ * #SNAPSHOT_INTERVAL_MILLIS} milliseconds Jet takes a snapshot of the file
+ * offsets together with the running totals. When the job restarts, for
+ * example because a member left the cluster, it resumes from the last
+ * snapshot and neither reads the old data again nor loses the counts.
+ * <p>
+ * The sample feeds the books from the {@code sample-data} module into a
+ * temporary directory (or the directory given as the argument), half a book
+ * at a time, and restarts the job halfway through. When all the books are
+ * in, it checks that the count of "the" matches the one from the batch job.
+ */
+public class WordCountStreaming {
+
+    private static final String COUNTS = "counts";
+    private static final int TOP_K = 20;
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 1000;
+    private static final long FEED_PAUSE_MILLIS = 500;
+    private static final long MAX_WAIT_SECONDS = 60;
+    private static final long EXPECTED_COUNT_OF_THE = 951_129;
+
+    private JetInstance jet;
+    private List<String> bookNames;
+
+    @Nonnull
+    private static DAG buildDag(Path directory) {
+        DAG dag = new DAG();
+        // nil -> new lines
+        Vertex source = dag.newVertex("source", streamBooksP(directory.toString(), POLL_INTERVAL_MILLIS));
+        // line -> words
+        Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
+        // word -> (word, totalCount), whenever the count changes
+        Vertex count = dag.newVertex("count", runningCountsP());
+        // (word, totalCount) -> nil
+        Vertex sink = dag.newVertex("sink", writeMapP(COUNTS));
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, count)
+                          .distributed()
+                          .partitioned(wholeItem()))
+                  .edge(between(count, sink));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("hazelcast.logging.type", "log4j");
+        Path directory = args.length > 0
+                ? Files.createDirectories(Paths.get(args[0]))
+                : Files.createTempDirectory("word-count-streaming");
+        try {
+            new WordCountStreaming().go(directory);
+        } finally {
+            if (args.length == 0) {
+                delete(directory);
+            }
+        }
+    }
+
+    private void go(Path directory) throws Exception {
+        try {
+            setup();
+            JobConfig jobConfig = new JobConfig()
+                    .setName("word-count-streaming")
+                    .setProcessingGuarantee(EXACTLY_ONCE)
+                    .setSnapshotIntervalMillis(SNAPSHOT_INTERVAL_MILLIS);
+            Job job = jet.newJob(buildDag(directory), jobConfig);
+            System.out.println("Watching " + directory);
+            feedBooks(directory, job);
+            IMap<String, Long> counts = jet.getMap(COUNTS);
+            long deadline = System.nanoTime() + SECONDS.toNanos(MAX_WAIT_SECONDS);
+            while (counts.getOrDefault("the", 0L) < EXPECTED_COUNT_OF_THE && deadline - System.nanoTime() > 0) {
+                MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            }
+            // give the job a chance to overshoot if it read some data twice
+            MILLISECONDS.sleep(SNAPSHOT_INTERVAL_MILLIS);
+            printResults(counts);
+            if (counts.getOrDefault("the", 0L) != EXPECTED_COUNT_OF_THE) {
+                throw new AssertionError("Wrong count of 'the': " + counts.get("the"));
+            }
+            System.out.println("Count of 'the' is valid");
+            job.cancel();
+        } finally {
+            Jet.shutdownAll();
+        }
+    }
+
+    private void feedBooks(Path directory, Job job) throws Exception {
+        for (int i = 0; i < bookNames.size(); i++) {
+            String name = bookNames.get(i);
+            List<String> lines = bookLines(name);
+            Path file = directory.resolve(name);
+            Files.write(file, lines.subList(0, lines.size() / 2), UTF_8, CREATE, APPEND);
+            MILLISECONDS.sleep(FEED_PAUSE_MILLIS);
+            Files.write(file, lines.subList(lines.size() / 2, lines.size()), UTF_8, CREATE, APPEND);
+            System.out.println("Added " + name);
+            if (i == bookNames.size() / 2) {
+                System.out.println("Restarting the job, it will resume from the last snapshot");
+                job.restart();
+            }
+        }
+    }
+
+    private void setup() {
+        JetConfig cfg = new JetConfig();
+        cfg.setInstanceConfig(new InstanceConfig().setCooperativeThreadCount(
+                Math.max(1, getRuntime().availableProcessors() / 2)));
+
+        System.out.println("Creating Jet instance 1");
+        jet = Jet.newJetInstance(cfg);
+        System.out.println("Creating Jet instance 2");
+        Jet.newJetInstance(cfg);
+        try (Stream<String> names = docFilenames()) {
+            bookNames = names.collect(toList());
+        }
+    }
+
+    private static void printResults(IMap<String, Long> counts) {
+        System.out.format(" Top %d entries are:%n", TOP_K);
+        System.out.println("/-------+---------\\");
+        System.out.println("| Count | Word    |");
+        System.out.println("|-------+---------|");
+        TopWords topWords = new TopWords(TOP_K);
+        counts.entrySet().forEach(topWords::offer);
+        topWords.sorted().forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
+        System.out.println("\\-------+---------/");
+    }
+
+    private static List<String> bookLines(String name) throws IOException {
+        final ClassLoader cl = WordCountStreaming.class.getClassLoader();
+        try (BufferedReader r = new BufferedReader(
+                new InputStreamReader(cl.getResourceAsStream("books/" + name), UTF_8))) {
+            return r.lines().collect(toList());
+        }
+    }
+
+    private static Stream<String> docFilenames() {
+        final ClassLoader cl = WordCountStreaming.class.getClassLoader();
+        final BufferedReader r = new BufferedReader(new InputStreamReader(cl.getResourceAsStream("books"), UTF_8));
+        return r.lines().onClose(() -> close(r));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void close(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -16,106 +16,118 @@
 
 package benchmark;
 
-import java.io.BufferedReader;
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import shared.BookLinesSpliterator;
+import wordcount.Books;
+import wordcount.CorpusCache;
+import wordcount.TopWords;
+
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Comparator.comparingLong;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.counting;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.summarizingLong;
+import static java.util.stream.Collectors.toList;
 
 /**
  * Measures the performance of a basic JDK parallel stream that performs the
  * word count computation on the input from the {@code books} module.
  * <p>
- * It can be observed that the JDK implementation will be unable to parallelize
- * this computation and the main reason is that the spliterator returned from
- * {@link BufferedReader#lines()} has unknown size, which foils JDK's input
- * splitting strategy. If {@code docFilenames()} is replaced with {@code
- * docFilenames().collect(toList()).stream()}, the underlying spliterator will
- * be able to report its size and the JDK will then successfully parallelize
- * the job.
+ * The stream used to be {@code docFilenames().parallel().flatMap(bookLines)},
+ * which the JDK is unable to parallelize well: the spliterator returned from
+ * {@link java.io.BufferedReader#lines()} has unknown size, which foils JDK's input
+ * splitting strategy, and even with a sized list of file names {@code
+ * flatMap} reads the lines of each book sequentially, so the largest book
+ * determines the running time. The stream now comes from a {@link
+ * BookLinesSpliterator}, which splits the books by byte ranges on line
+ * boundaries and keeps all the cores busy.
+ * <p>
+ * It measures the job twice: end to end, reading the book files in every
+ * run, and compute only, reading the books that a {@link CorpusCache} loaded
+ * into memory once, before all the runs.
  */
 public class WordCountJdk {
 
     public static void main(String[] args) throws Exception {
+        CorpusCache cache = CorpusCache.of(bookNames());
+        LongSummaryStatistics fromFiles = run(WordCountJdk::countWords);
+        LongSummaryStatistics fromMemory = run(() -> countWords(cache.lines()));
+        System.out.println("\nEnd to end, reading the files: " + fromFiles);
+        System.out.println("Compute only, reading the books cached in memory: " + fromMemory);
+        System.out.format("Compute throughput: %.1f MB/s%n", cache.totalBytes() / 1e3 / fromMemory.getAverage());
+    }
+
+    private static LongSummaryStatistics run(Supplier<Map<String, Long>> countWords) {
         // Warmup
-        measure();
-        measure();
-        measure();
+        measure(countWords);
+        measure(countWords);
+        measure(countWords);
         List<Long> timings = new ArrayList<>();
         for (int i = 0; i < 9; i++) {
-            timings.add(measure());
+            timings.add(measure(countWords));
             System.gc();
         }
-        System.out.println(timings.stream().collect(summarizingLong(x -> x)));
+        return timings.stream().collect(summarizingLong(x -> x));
     }
 
-    private static long measure() {
-        final Pattern delimiter = Pattern.compile("\\W+");
+    private static long measure(Supplier<Map<String, Long>> countWords) {
         System.out.print("\nCounting words... ");
         long start = System.nanoTime();
-        Map<String, Long> counts = docFilenames()
-//                .collect(toList()).stream()
-                .parallel()
-                .flatMap(WordCountJdk::bookLines)
-                .flatMap(line -> Arrays.stream(delimiter.split(line.toLowerCase())))
-                .filter(w -> !w.isEmpty())
-                .collect(groupingBy(identity(), counting()));
+        Map<String, Long> counts = countWords.get();
         final long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
         System.out.print("done in " + took + " milliseconds.");
         printResults(counts);
         return took;
     }
 
+    /**
+     * Counts the words in all the books with a JDK parallel stream.
+     */
+    public static Map<String, Long> countWords() {
+        return countWords(BookLinesSpliterator.lines(bookPaths()));
+    }
+
+    /**
+     * Counts the words in the given lines, for example those of a {@link
+     * CorpusCache}.
+     */
+    public static Map<String, Long> countWords(Stream<String> lines) {
+        final Pattern delimiter = Pattern.compile("\\W+");
+        return lines
+                .flatMap(line -> Arrays.stream(delimiter.split(line.toLowerCase())))
+                .filter(w -> !w.isEmpty())
+                .collect(groupingBy(identity(), counting()));
+    }
+
     private static void printResults(Map<String, Long> counts) {
         final int limit = 100;
         System.out.format(" Top %d entries are:%n", limit);
         System.out.println("/-------+---------\\");
         System.out.println("| Count | Word    |");
         System.out.println("|-------+---------|");
-        counts.entrySet().stream()
-              .sorted(comparingLong(Entry<String, Long>::getValue).reversed())
-              .limit(limit)
-              .forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
+        TopWords topWords = new TopWords(limit);
+        counts.entrySet().forEach(topWords::offer);
+        topWords.sorted().forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
         System.out.println("\\-------+---------/");
     }
 
-    private static Stream<String> docFilenames() {
-        final ClassLoader cl = WordCountJdk.class.getClassLoader();
-        final BufferedReader r = new BufferedReader(new InputStreamReader(cl.getResourceAsStream("books"), UTF_8));
-        return r.lines().onClose(() -> close(r));
+    /**
+     * Returns the names of the books, see {@link Books}.
+     */
+    public static List<String> bookNames() {
+        return Books.bookNames();
     }
 
-    private static Stream<String> bookLines(String name) {
-        try {
-            final ClassLoader cl = WordCountSingleNode.class.getClassLoader();
-            return Files.lines(Paths.get(cl.getResource("books/" + name).toURI()));
-        } catch (IOException | URISyntaxException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static void close(Closeable c) {
-        try {
-            c.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private static List<Path> bookPaths() {
+        return bookNames().stream().map(Books::bookPath).collect(toList());
     }
 }
@@ -20,42 +20,43 @@ import com.hazelcast.jet.Jet;
 import com.hazelcast.jet.JetInstance;
 import com.hazelcast.jet.Job;
 import com.hazelcast.jet.Traverser;
-import com.hazelcast.jet.Util;
 import com.hazelcast.jet.config.JetConfig;
 import com.hazelcast.jet.core.AbstractProcessor;
 import com.hazelcast.jet.core.DAG;
 import com.hazelcast.jet.core.Vertex;
+import shared.TokenizeP;
+import wordcount.Books;
+import wordcount.CorpusCache;
+import wordcount.ReadBooksP;
 
 import javax.annotation.Nonnull;
-import java.io.BufferedReader;
-import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URISyntaxException;
+import java.io.Serializable;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static com.hazelcast.jet.Traversers.traverseArray;
 import static com.hazelcast.jet.Traversers.traverseStream;
-import static com.hazelcast.jet.aggregate.AggregateOperations.counting;
 import static com.hazelcast.jet.core.Edge.between;
 import static com.hazelcast.jet.core.Partitioner.HASH_CODE;
-import static com.hazelcast.jet.core.processor.Processors.aggregateByKeyP;
-import static com.hazelcast.jet.core.processor.Processors.flatMapP;
 import static com.hazelcast.jet.function.Functions.wholeItem;
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Collections.singletonList;
-import static java.util.Comparator.comparingLong;
 import static java.util.stream.Collectors.summarizingLong;
+import static wordcount.CountWordsP.accumulateWordsP;
+import static wordcount.ReadBooksP.readCachedBooksP;
 
 /**
  * Measures the performance of a Jet word count job optimized for single-node
@@ -67,11 +68,17 @@ import static java.util.stream.Collectors.summarizingLong;
  * immediately opens all the files and emits their lines ({@code doc-lines} is
  * merged into {@code source}), and the {@code combine} vertex is simply removed,
  * which also removes the distributed edge towards it. Finally, instead of
- * writing to an {@code IMap}, it writes to a simple {@code ConcurrentHashMap}.
+ * writing to an {@code IMap}, each sink processor writes to its own plain
+ * {@code HashMap}, with no synchronization on the hot path, and hands it
+ * over to a {@link SinkResults} when it completes.
+ * <p>
+ * Like {@link WordCountJdk}, it measures the job both end to end and compute
+ * only, with the books cached in memory by a {@link CorpusCache}.
  */
 public class WordCountSingleNode {
 
     private JetInstance jet;
+    private final SinkResults results = new SinkResults();
 
     public static void main(String[] args) throws Exception {
         System.setProperty("hazelcast.logging.type", "log4j");
@@ -79,32 +86,43 @@ public class WordCountSingleNode {
     }
 
     private void go() throws Exception {
-        List<Long> timings = new ArrayList<>();
+        LongSummaryStatistics fromFiles;
+        LongSummaryStatistics fromMemory;
+        CorpusCache cache = CorpusCache.of(WordCountJdk.bookNames());
         try {
             setup();
-            // Warmup
-            measure();
-            measure();
-            measure();
-            for (int i = 0; i < 9; i++) {
-                timings.add(measure());
-                System.gc();
-            }
+            fromFiles = run(() -> buildDag(results));
+            fromMemory = run(() -> buildDag(results, cache));
         } finally {
+            results.close();
             Jet.shutdownAll();
         }
-        System.out.println(timings.stream().collect(summarizingLong(x -> x)));
+        System.out.println("\nEnd to end, reading the files: " + fromFiles);
+        System.out.println("Compute only, reading the books cached in memory: " + fromMemory);
+        System.out.format("Compute throughput: %.1f MB/s%n", cache.totalBytes() / 1e3 / fromMemory.getAverage());
     }
 
-    private long measure() throws InterruptedException, ExecutionException {
+    private LongSummaryStatistics run(Supplier<DAG> dagFn) throws InterruptedException, ExecutionException {
+        // Warmup
+        measure(dagFn.get());
+        measure(dagFn.get());
+        measure(dagFn.get());
+        List<Long> timings = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            timings.add(measure(dagFn.get()));
+            System.gc();
+        }
+        return timings.stream().collect(summarizingLong(x -> x));
+    }
+
+    private long measure(DAG dag) throws InterruptedException, ExecutionException {
         System.out.print("\nCounting words... ");
-        final Map<String, Long> counts = new ConcurrentHashMap<>();
-        final Job job = jet.newJob(buildDag(counts));
+        results.clear();
+        final Job job = jet.newJob(dag);
         long start = System.nanoTime();
         job.join();
         final long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
-        System.out.print("done in " + took + " milliseconds.");
-//        printResults(counts);
+        System.out.print("done in " + took + " milliseconds, " + results.view().size() + " distinct words.");
         return took;
     }
 
@@ -114,62 +132,51 @@ public class WordCountSingleNode {
         jet = Jet.newJetInstance(cfg);
     }
 
-    private static void printResults(Map<String, Long> counts) {
-        final int limit = 100;
-        System.out.format(" Top %d entries are:%n", limit);
-        System.out.println("/-------+---------\\");
-        System.out.println("| Count | Word    |");
-        System.out.println("|-------+---------|");
-        counts.entrySet().stream()
-              .sorted(comparingLong(Entry<String, Long>::getValue).reversed())
-              .limit(limit)
-              .forEach(e -> System.out.format("|%6d | %-8s|%n", e.getValue(), e.getKey()));
-        System.out.println("\\-------+---------/");
-    }
-
+    /**
+     * Builds the single-node word count DAG that hands its results over to
+     * the given {@code SinkResults}.
+     */
     @Nonnull
-    private static DAG buildDag(Map<String, Long> counts) {
-        final Pattern delimiter = Pattern.compile("\\W+");
+    public static DAG buildDag(SinkResults results) {
         DAG dag = new DAG();
         Vertex source = dag.newVertex("source", DocLinesP::new);
-        Vertex tokenize = dag.newVertex("tokenize", flatMapP((String line) ->
-                        traverseArray(delimiter.split(line.toLowerCase()))
-                                .filter(word -> !word.isEmpty()))
-        );
-        Vertex aggregate = dag.newVertex("aggregate",
-                aggregateByKeyP(singletonList(wholeItem()), counting(), Util::entry));
-        Vertex sink = dag.newVertex("sink", () -> new MapSinkP(counts));
+        Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
+        Vertex aggregate = dag.newVertex("aggregate", accumulateWordsP());
+        Vertex sink = dag.newVertex("sink", () -> new MapSinkP(results));
         return dag.edge(between(source.localParallelism(1), tokenize))
                   .edge(between(tokenize, aggregate).partitioned(wholeItem(), HASH_CODE))
                   .edge(between(aggregate, sink));
     }
 
-    private static Stream<String> docFilenames() {
-        final ClassLoader cl = WordCountSingleNode.class.getClassLoader();
-        final BufferedReader r = new BufferedReader(new InputStreamReader(cl.getResourceAsStream("books"), UTF_8));
-        return r.lines().onClose(() -> close(r));
-    }
-
-    private static void close(Closeable c) {
-        try {
-            c.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Builds the single-node word count DAG with a source that reads the
+     * books from the given cache instead of the files. Unlike the single
+     * {@code DocLinesP} of the other DAG, the source runs on all the threads,
+     * see {@link ReadBooksP#readCachedBooksP}.
+     */
+    @Nonnull
+    public static DAG buildDag(SinkResults results, CorpusCache cache) {
+        DAG dag = new DAG();
+        Vertex source = dag.newVertex("source", readCachedBooksP(cache.bookNames()));
+        Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
+        Vertex aggregate = dag.newVertex("aggregate", accumulateWordsP());
+        Vertex sink = dag.newVertex("sink", () -> new MapSinkP(results));
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, aggregate).partitioned(wholeItem(), HASH_CODE))
+                  .edge(between(aggregate, sink));
     }
 
     private static Stream<String> bookLines(String name) {
         try {
-            final ClassLoader cl = WordCountSingleNode.class.getClassLoader();
-            return Files.lines(Paths.get(cl.getResource("books/" + name).toURI()));
-        } catch (IOException | URISyntaxException e) {
+            return Files.lines(Books.bookPath(name));
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     private static class DocLinesP extends AbstractProcessor {
         private final Traverser<String> docLines =
-                traverseStream(docFilenames().flatMap(WordCountSingleNode::bookLines));
+                traverseStream(Books.bookNames().stream().flatMap(WordCountSingleNode::bookLines));
 
         @Override
         public boolean isCooperative() {
@@ -182,11 +189,76 @@ public class WordCountSingleNode {
         }
     }
 
+    /**
+     * Collects the word counts written by the sink processors of a job. Each
+     * processor publishes its own map once, when it completes, so the only
+     * synchronization happens once per processor instead of once per word.
+     * The maps have disjoint keys because the input of {@code aggregate} is
+     * partitioned by word: each word is counted by a single {@code aggregate}
+     * processor, which emits its total once, so the plain local edge to the
+     * sink delivers every word to exactly one sink processor.
+     * <p>
+     * Jet serializes the DAG when it submits the job, so the processors see
+     * a copy of this object. The copy only carries an ID and the maps go to
+     * a static registry under that ID, which works as long as the Jet member
+     * runs in the JVM that reads the results, as it does in this benchmark.
+     * {@link #close()} removes the results from the registry.
+     */
+    public static final class SinkResults implements Serializable, AutoCloseable {
+        private static final AtomicLong NEXT_ID = new AtomicLong();
+        private static final ConcurrentMap<Long, Queue<Map<String, Long>>> PARTS = new ConcurrentHashMap<>();
+
+        private final long id = NEXT_ID.incrementAndGet();
+
+        public SinkResults() {
+            PARTS.put(id, new ConcurrentLinkedQueue<>());
+        }
+
+        /**
+         * Discards the results of the previous job.
+         */
+        public void clear() {
+            parts().clear();
+        }
+
+        /**
+         * Returns a read-only map with the results of all the processors.
+         * Call it after the job has completed.
+         */
+        @Nonnull
+        public Map<String, Long> view() {
+            Map<String, Long> merged = new HashMap<>();
+            parts().forEach(merged::putAll);
+            return Collections.unmodifiableMap(merged);
+        }
+
+        /**
+         * Discards the results and releases the ID.
+         */
+        @Override
+        public void close() {
+            PARTS.remove(id);
+        }
+
+        void publish(Map<String, Long> part) {
+            parts().add(part);
+        }
+
+        private Queue<Map<String, Long>> parts() {
+            Queue<Map<String, Long>> parts = PARTS.get(id);
+            if (parts == null) {
+                throw new IllegalStateException("SinkResults " + id + " is closed or lives in another JVM");
+            }
+            return parts;
+        }
+    }
+
     private static class MapSinkP extends AbstractProcessor {
-        private final Map<String, Long> counts;
+        private final SinkResults results;
+        private final Map<String, Long> counts = new HashMap<>();
 
-        MapSinkP(Map<String, Long> counts) {
-            this.counts = counts;
+        MapSinkP(SinkResults results) {
+            this.results = results;
         }
 
         @Override
@@ -196,5 +268,11 @@ public class WordCountSingleNode {
             counts.put(e.getKey(), e.getValue());
             return true;
         }
+
+        @Override
+        public boolean complete() {
+            results.publish(counts);
+            return true;
+        }
     }
 }
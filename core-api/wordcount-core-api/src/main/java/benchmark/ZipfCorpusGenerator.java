@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates a synthetic corpus for the word count and TF-IDF samples that is
+ * as large as needed and always the same for the same parameters. It writes
+ * {@code docCount} text files of about {@code docSize} bytes each into the
+ * {@code books} subdirectory of the output directory. Put the output
+ * directory on the classpath in front of the {@code sample-data} module and
+ * the samples will read the generated documents instead of the bundled books.
+ * <p>
+ * The words follow Zipf's law: the word with rank {@code k} (starting from 1)
+ * occurs with the probability proportional to {@code 1 / k^s}. The vocabulary
+ * is made up of syllables so that the most frequent words are also the
+ * shortest ones, just like in natural language. Each document is generated
+ * from its own random stream derived from the seed, so the documents are
+ * written in parallel and still don't depend on the number of threads.
+ * <p>
+ * The arguments are the output directory, the number of documents, the
+ * document size in bytes, the vocabulary size, the Zipf exponent and the
+ * seed, for example this writes 10 GB of text over a million distinct words:
+ * <pre>
+ * java -cp ... benchmark.ZipfCorpusGenerator corpus 1000 10000000 1000000 1.0 42
+ * </pre>
+ */
+public class ZipfCorpusGenerator {
+
+    private static final String CONSONANTS = "bcdfghjklmnpqrstvwxyz";
+    private static final String VOWELS = "aeiou";
+    private static final int SYLLABLE_COUNT = CONSONANTS.length() * VOWELS.length();
+    private static final int LINE_LENGTH = 80;
+    private static final long SEED_STRIDE = 0x9E3779B97F4A7C15L;
+
+    private final Path booksDir;
+    private final int docCount;
+    private final long docSize;
+    private final long seed;
+    private final String[] vocabulary;
+    private final double[] cumulativeProbabilities;
+
+    public ZipfCorpusGenerator(Path outputDir, int docCount, long docSize, int vocabularySize, double exponent,
+                               long seed) {
+        if (docCount <= 0 || docSize <= 0 || vocabularySize <= 0 || exponent <= 0) {
+            throw new IllegalArgumentException("docCount, docSize, vocabularySize and exponent must be positive");
+        }
+        this.booksDir = outputDir.resolve("books");
+        this.docCount = docCount;
+        this.docSize = docSize;
+        this.seed = seed;
+        this.vocabulary = new String[vocabularySize];
+        this.cumulativeProbabilities = new double[vocabularySize];
+        double sum = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            vocabulary[rank] = word(rank);
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulativeProbabilities[rank] = sum;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            cumulativeProbabilities[rank] /= sum;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: ZipfCorpusGenerator <outputDir> <docCount> <docSize> <vocabularySize> "
+                    + "[exponent=1.0] [seed=42]");
+            System.exit(1);
+        }
+        ZipfCorpusGenerator generator = new ZipfCorpusGenerator(
+                Paths.get(args[0]),
+                Integer.parseInt(args[1]),
+                Long.parseLong(args[2]),
+                Integer.parseInt(args[3]),
+                args.length > 4 ? Double.parseDouble(args[4]) : 1.0,
+                args.length > 5 ? Long.parseLong(args[5]) : 42);
+        long start = System.nanoTime();
+        generator.generate();
+        System.out.format("Generated %d documents in %s in %,d milliseconds.%n",
+                generator.docCount, generator.booksDir, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Writes all the documents, replacing any existing ones with the same
+     * names.
+     */
+    public void generate() throws IOException {
+        Files.createDirectories(booksDir);
+        try {
+            IntStream.range(0, docCount).parallel().forEach(this::writeDocument);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the file name of the document with the given index, padded so
+     * that the names sort in the order of the documents.
+     */
+    public String docName(int docIndex) {
+        int width = String.valueOf(docCount - 1).length();
+        return String.format("doc-%0" + width + "d.txt", docIndex);
+    }
+
+    private void writeDocument(int docIndex) {
+        SplittableRandom random = new SplittableRandom(seed + SEED_STRIDE * docIndex);
+        try (Writer w = Files.newBufferedWriter(booksDir.resolve(docName(docIndex)), UTF_8)) {
+            long written = 0;
+            int lineLength = 0;
+            while (written < docSize) {
+                String word = vocabulary[nextRank(random)];
+                if (lineLength > 0 && lineLength + 1 + word.length() > LINE_LENGTH) {
+                    w.write('\n');
+                    written++;
+                    lineLength = 0;
+                } else if (lineLength > 0) {
+                    w.write(' ');
+                    written++;
+                    lineLength++;
+                }
+                w.write(word);
+                written += word.length();
+                lineLength += word.length();
+            }
+            w.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int nextRank(SplittableRandom random) {
+        int i = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, vocabulary.length - 1);
+    }
+
+    /**
+     * Returns the word with the given zero-based rank. Ranks are written in
+     * bijective base-{@value #SYLLABLE_COUNT} numeration with one consonant-vowel
+     * syllable per digit, so every rank gets a distinct word and only the
+     * first {@value #SYLLABLE_COUNT} words are a single syllable long.
+     */
+    static String word(int rank) {
+        StringBuilder sb = new StringBuilder();
+        int n = rank + 1;
+        while (n > 0) {
+            int digit = (n - 1) % SYLLABLE_COUNT;
+            sb.append(CONSONANTS.charAt(digit / VOWELS.length()))
+              .append(VOWELS.charAt(digit % VOWELS.length()));
+            n = (n - 1) / SYLLABLE_COUNT;
+        }
+        return sb.toString();
+    }
+}
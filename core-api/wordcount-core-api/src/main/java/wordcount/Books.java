@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package wordcount;
+
+import com.hazelcast.jet.JetException;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Locates the book files of the word count samples. By default the books
+ * come from the {@code books} directory on the classpath. When that
+ * directory is inside a JAR, for example in the {@code benchmarks.jar}
+ * uberjar, the books are copied to a temporary directory the first time
+ * they are needed, because a file inside a JAR can be neither listed as a
+ * resource nor memory-mapped. To read the books from another directory,
+ * set the system property {@value #BOOKS_DIR_PROPERTY}:
+ * <pre>
+ * java -Dbooks.dir=/path/to/books -jar benchmarks.jar
+ * </pre>
+ */
+public final class Books {
+
+    /** The system property with the directory to read the books from. */
+    public static final String BOOKS_DIR_PROPERTY = "books.dir";
+
+    private static Path booksDir;
+
+    private Books() {
+    }
+
+    /**
+     * Returns the names of all the books, sorted.
+     */
+    @Nonnull
+    public static List<String> bookNames() {
+        try (Stream<Path> files = Files.list(booksDir())) {
+            return files.filter(Files::isRegularFile)
+                        .map(path -> path.getFileName().toString())
+                        .sorted()
+                        .collect(toList());
+        } catch (IOException e) {
+            throw new JetException(e);
+        }
+    }
+
+    /**
+     * Returns the path of the file of the given book.
+     */
+    @Nonnull
+    public static Path bookPath(@Nonnull String name) {
+        return booksDir().resolve(name);
+    }
+
+    private static synchronized Path booksDir() {
+        if (booksDir == null) {
+            String dir = System.getProperty(BOOKS_DIR_PROPERTY);
+            booksDir = dir != null ? Paths.get(dir) : classpathBooksDir();
+        }
+        return booksDir;
+    }
+
+    private static Path classpathBooksDir() {
+        URL url = Books.class.getResource("/books");
+        if (url == null) {
+            throw new JetException("No books on the classpath, set -D" + BOOKS_DIR_PROPERTY);
+        }
+        try {
+            URI uri = url.toURI();
+            return "jar".equals(uri.getScheme()) ? extract(uri) : Paths.get(uri);
+        } catch (URISyntaxException | IOException e) {
+            throw new JetException(e);
+        }
+    }
+
+    private static Path extract(URI booksInJar) throws IOException {
+        Path dir = Files.createTempDirectory("books");
+        dir.toFile().deleteOnExit();
+        FileSystem jar = openJar(booksInJar);
+        try (Stream<Path> books = Files.list(jar.getPath("/books"))) {
+            for (Path book : (Iterable<Path>) books::iterator) {
+                Path copy = dir.resolve(book.getFileName().toString());
+                Files.copy(book, copy);
+                copy.toFile().deleteOnExit();
+            }
+        }
+        return dir;
+    }
+
+    private static FileSystem openJar(URI uri) throws IOException {
+        try {
+            return FileSystems.newFileSystem(uri, Collections.emptyMap());
+        } catch (FileSystemAlreadyExistsException e) {
+            return FileSystems.getFileSystem(uri);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import shared.BookLinesSpliterator;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Holds the contents of a set of books in off-heap memory so that a
+ * benchmark can count their words repeatedly without reading the files
+ * again. It measures only the decoding and the counting, while the page
+ * cache, the file system and the memory mapping stay out of the picture.
+ * <p>
+ * There is one cache per JVM and list of book names: {@link #of} loads the
+ * books the first time it is called and returns the same instance after
+ * that, until {@link #clear()}. Each book is kept in a direct {@code
+ * ByteBuffer} as its raw UTF-8 bytes and handed out as a read-only view.
+ * <p>
+ * Use {@link ReadBooksP#readCachedBooksP} to read the cache in a Jet job and
+ * {@link #lines()} to read it in a JDK stream.
+ */
+public final class CorpusCache {
+
+    private static final ConcurrentMap<List<String>, CorpusCache> CACHES = new ConcurrentHashMap<>();
+
+    private final List<String> bookNames;
+    private final List<ByteBuffer> books = new ArrayList<>();
+    private final long totalBytes;
+
+    private CorpusCache(List<String> bookNames) {
+        this.bookNames = bookNames;
+        long total = 0;
+        for (String name : bookNames) {
+            ByteBuffer book = load(Books.bookPath(name));
+            books.add(book);
+            total += book.remaining();
+        }
+        this.totalBytes = total;
+    }
+
+    /**
+     * Returns the cache of the books with the given names, loading them if
+     * this JVM hasn't cached them yet.
+     */
+    @Nonnull
+    public static CorpusCache of(@Nonnull List<String> bookNames) {
+        return CACHES.computeIfAbsent(Collections.unmodifiableList(new ArrayList<>(bookNames)), CorpusCache::new);
+    }
+
+    /**
+     * Drops all the caches of this JVM. Their memory is freed when their
+     * buffers are garbage-collected.
+     */
+    public static void clear() {
+        CACHES.clear();
+    }
+
+    @Nonnull
+    public List<String> bookNames() {
+        return bookNames;
+    }
+
+    public int bookCount() {
+        return books.size();
+    }
+
+    /**
+     * Returns the total size of the books in bytes.
+     */
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns a new read-only view of the given book's bytes. The views are
+     * independent, so each thread can use its own.
+     */
+    @Nonnull
+    public ByteBuffer book(int index) {
+        return books.get(index).duplicate();
+    }
+
+    /**
+     * Returns a parallel stream of the lines of all the books, see {@link
+     * BookLinesSpliterator}.
+     */
+    @Nonnull
+    public Stream<String> lines() {
+        return BookLinesSpliterator.linesInMemory(books);
+    }
+
+    private static ByteBuffer load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long size = Files.size(path);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(path + " is larger than 2 GB");
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            int read = 0;
+            while (buffer.hasRemaining() && read >= 0) {
+                read = channel.read(buffer);
+            }
+            // cast to Buffer for the method that is covariant since JDK 9
+            ((Buffer) buffer).flip();
+            return buffer.asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load " + path, e);
+        }
+    }
+}
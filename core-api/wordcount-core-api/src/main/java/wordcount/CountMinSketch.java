@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+import java.io.IOException;
+
+/**
+ * A Count-Min Sketch: a fixed-size table of {@code depth} rows of {@code
+ * width} counters that estimates how many times each item was added. Each
+ * row maps an item to one of its counters with a different hash function;
+ * the estimate is the smallest of the item's counters. It never
+ * underestimates and, with probability at least {@code 1 - delta}, it
+ * overestimates by at most {@code epsilon} times the total of all the
+ * added counts.
+ * <p>
+ * Items are identified by a 64-bit hash, such as {@link
+ * WordCountBatch#wordId}. The row hashes are derived from it by double
+ * hashing. Two sketches with the same dimensions can be merged by adding up
+ * their tables, which gives the sketch of the combined input.
+ */
+public final class CountMinSketch implements DataSerializable {
+
+    private int depth;
+    private int width;
+    private long[] table;
+    private long total;
+
+    /**
+     * Used by deserialization.
+     */
+    public CountMinSketch() {
+    }
+
+    /**
+     * Creates a sketch that overestimates by at most {@code epsilon * total}
+     * with probability at least {@code 1 - delta}.
+     */
+    public CountMinSketch(double epsilon, double delta) {
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("epsilon and delta must be in (0, 1): " + epsilon + ", " + delta);
+        }
+        width = (int) Math.ceil(Math.E / epsilon);
+        depth = (int) Math.ceil(Math.log(1 / delta));
+        table = new long[depth * width];
+    }
+
+    /**
+     * Adds {@code count} to the item with the given hash.
+     */
+    public void add(long hash, long count) {
+        for (int row = 0; row < depth; row++) {
+            table[index(row, hash)] += count;
+        }
+        total += count;
+    }
+
+    /**
+     * Returns the estimated count of the item with the given hash.
+     */
+    public long estimate(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, table[index(row, hash)]);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the total of all the added counts.
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Adds the counts of the other sketch to this one.
+     */
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Can't merge a " + other.depth + 'x' + other.width
+                    + " sketch into a " + depth + 'x' + width + " one");
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        total += other.total;
+    }
+
+    private int index(int row, long hash) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return row * width + (combined & Integer.MAX_VALUE) % width;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(width);
+        out.writeLong(total);
+        for (long counter : table) {
+            out.writeLong(counter);
+        }
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        depth = in.readInt();
+        width = in.readInt();
+        total = in.readLong();
+        table = new long[depth * width];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readLong();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.util.PriorityQueue;
+
+import static com.hazelcast.jet.Traversers.lazy;
+import static com.hazelcast.jet.Traversers.traverseIterable;
+import static java.util.Comparator.comparingLong;
+import static wordcount.NGramCounter.COUNT;
+
+/**
+ * Sums up the n-gram counts it receives as {@link NGramCounter} records.
+ * When it completes, it emits the records of its {@code k} n-grams with the
+ * highest totals, in no particular order. The other totals are discarded.
+ * <p>
+ * Use it in two stages: after {@link NGramTokenizeP}, over an edge
+ * partitioned by the record's key, and then with local parallelism one,
+ * connected with a distributed all-to-one edge, to merge the top records
+ * of all the processors of the first stage.
+ */
+public final class CountNGramsP extends AbstractProcessor {
+
+    private final int k;
+    private final NGramCounter counter = new NGramCounter();
+    private final Traverser<long[]> resultTraverser = lazy(() -> traverseIterable(topRecords()));
+
+    private CountNGramsP(int k) {
+        this.k = k;
+    }
+
+    /**
+     * Returns a supplier of processors that receive n-gram records and emit
+     * the records with the {@code k} highest total counts.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> countNGramsP(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k=" + k);
+        }
+        return () -> new CountNGramsP(k);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        counter.add((long[]) item);
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(resultTraverser);
+    }
+
+    /**
+     * Selects the top records with a min-heap on the count, allocating a
+     * record only for the n-grams that enter the heap.
+     */
+    private PriorityQueue<long[]> topRecords() {
+        PriorityQueue<long[]> top = new PriorityQueue<>(k + 1, comparingLong(record -> record[COUNT]));
+        for (int i = 0; i < counter.size(); i++) {
+            if (top.size() < k || counter.countAt(i) > top.peek()[COUNT]) {
+                top.add(counter.recordAt(i));
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+        }
+        return top;
+    }
+}
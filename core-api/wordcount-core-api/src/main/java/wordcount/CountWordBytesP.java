@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import shared.WordTokenizer;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import static com.hazelcast.jet.Traversers.lazy;
+
+/**
+ * Counts the words in chunks of raw UTF-8 text without decoding them into
+ * {@code String}s. It receives the {@code ByteBuffer}s emitted by {@link
+ * ReadBooksP#readBookChunksP}, finds the word boundaries on the bytes and
+ * counts the words in a {@link WordCounter}. When it completes, it emits
+ * {@code (word, localCount)} entries, so the strings are only created for
+ * the distinct words.
+ * <p>
+ * The words are the same as those found by {@link WordTokenizer}: a word
+ * character is an ASCII letter, digit or underscore, and every byte of a
+ * multi-byte UTF-8 sequence has its high bit set, so it is never mistaken
+ * for one. This makes it safe to treat each byte on its own and fold the
+ * case of the ASCII letters as it is copied.
+ * <p>
+ * To stay responsive on the cooperative thread, the processor scans at most
+ * {@value #BYTES_PER_CALL} bytes in one call and picks up where it stopped
+ * in the next one.
+ */
+public final class CountWordBytesP extends AbstractProcessor {
+
+    private static final int BYTES_PER_CALL = 1 << 16;
+    private static final int INITIAL_WORD_SIZE = 64;
+
+    private final WordCounter counter = new WordCounter();
+    private final Traverser<Entry<String, Long>> resultTraverser = lazy(counter::entries);
+    private final Word word = new Word();
+    private char[] wordChars = new char[INITIAL_WORD_SIZE];
+    private int wordLength;
+    private int position;
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        ByteBuffer chunk = (ByteBuffer) item;
+        int limit = chunk.limit();
+        int stop = Math.min(limit, position + BYTES_PER_CALL);
+        for (; position < stop; position++) {
+            byte b = chunk.get(position);
+            char c = b < 0 ? 0 : WordTokenizer.fold((char) b);
+            if (c != 0) {
+                append(c);
+            } else if (wordLength > 0) {
+                countWord();
+            }
+        }
+        if (position < limit) {
+            return false;
+        }
+        if (wordLength > 0) {
+            countWord();
+        }
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(resultTraverser);
+    }
+
+    private void append(char c) {
+        if (wordLength == wordChars.length) {
+            wordChars = Arrays.copyOf(wordChars, 2 * wordLength);
+        }
+        wordChars[wordLength++] = c;
+    }
+
+    private void countWord() {
+        counter.add(word, 1);
+        wordLength = 0;
+    }
+
+    /**
+     * A reusable view of the word being built.
+     */
+    private final class Word implements CharSequence {
+        @Override
+        public int length() {
+            return wordLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= wordLength) {
+                throw new IndexOutOfBoundsException("index=" + index + ", length=" + wordLength);
+            }
+            return wordChars[index];
+        }
+
+        @Nonnull @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Nonnull @Override
+        public String toString() {
+            return new String(wordChars, 0, wordLength);
+        }
+    }
+}
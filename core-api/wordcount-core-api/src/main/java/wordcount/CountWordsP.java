@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.util.Map.Entry;
+
+import static com.hazelcast.jet.Traversers.lazy;
+
+/**
+ * Counts words in a {@link WordCounter}. This is a specialization of
+ * <pre>
+ * accumulateByKeyP(singletonList(wholeItem()), counting())
+ * combineByKeyP(counting(), Util::entry)
+ * </pre>
+ * that avoids the {@code HashMap} entry and the {@code LongAccumulator} per
+ * distinct word as well as the boxing of each count. Both stages emit
+ * {@code (word, count)} entries when they complete.
+ */
+public final class CountWordsP extends AbstractProcessor {
+
+    private final boolean combine;
+    private final WordCounter counter = new WordCounter();
+    private final Traverser<Entry<String, Long>> resultTraverser = lazy(counter::entries);
+
+    private CountWordsP(boolean combine) {
+        this.combine = combine;
+    }
+
+    /**
+     * Returns a supplier of processors that receive words ({@code
+     * CharSequence} items) and emit {@code (word, localCount)} entries.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> accumulateWordsP() {
+        return () -> new CountWordsP(false);
+    }
+
+    /**
+     * Returns a supplier of processors that receive {@code (word, count)}
+     * entries and emit {@code (word, totalCount)} entries.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> combineWordCountsP() {
+        return () -> new CountWordsP(true);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (combine) {
+            @SuppressWarnings("unchecked")
+            Entry<String, Long> e = (Entry<String, Long>) item;
+            counter.add(e.getKey(), e.getValue());
+        } else {
+            counter.add((CharSequence) item, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(resultTraverser);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.hazelcast.jet.Traversers.lazy;
+import static com.hazelcast.jet.Traversers.traverseIterable;
+import static com.hazelcast.jet.Util.entry;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static wordcount.WordCountBatch.fnv1a;
+
+/**
+ * The combining stage of the word count with a batched shuffle. It receives
+ * {@link WordCountBatch}es from {@link EncodeWordCountsP} and sums up the
+ * counts in a table keyed by a 64-bit FNV-1a hash of the word's UTF-8
+ * bytes, which it computes as the words arrive: the batches don't carry the
+ * hashes, since they would take more bytes on the wire than computing them
+ * takes time. It keeps the UTF-8 bytes of the first word it sees for each
+ * hash and only decodes them into a {@code String} when it emits the final
+ * {@code (word, totalCount)} entries.
+ * <p>
+ * Two different words may share a hash. The
+ * processor compares the bytes of each incoming word with the stored ones
+ * and counts any word that collides with a different one in a separate
+ * {@code HashMap}, keyed by the decoded word.
+ */
+public final class DecodeWordCountsP extends AbstractProcessor {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private int mask;
+    private int threshold;
+
+    private long[] ids;
+    private long[] counts;
+    /** Word {@code i} is {@code arena[wordStarts[i] .. wordStarts[i + 1]]}. */
+    private int[] wordStarts;
+    private byte[] arena = new byte[INITIAL_CAPACITY * 8];
+    private int size;
+
+    private final Map<String, Long> collisions = new HashMap<>();
+    private final Traverser<Entry<String, Long>> tableTraverser = lazy(this::entries);
+    private final Traverser<Entry<String, Long>> collisionTraverser =
+            lazy(() -> traverseIterable(collisions.entrySet()));
+
+    public DecodeWordCountsP() {
+        allocateSlots(INITIAL_CAPACITY);
+        ids = new long[threshold];
+        counts = new long[threshold];
+        wordStarts = new int[threshold + 1];
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        WordCountBatch batch = (WordCountBatch) item;
+        byte[] words = batch.words();
+        for (int i = 0; i < batch.size(); i++) {
+            int start = batch.wordStart(i);
+            int end = batch.wordEnd(i);
+            add(fnv1a(words, start, end), words, start, end, batch.count(i));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(tableTraverser) && emitFromTraverser(collisionTraverser);
+    }
+
+    private void add(long id, byte[] words, int start, int end, long count) {
+        int slot = (int) (id ^ (id >>> 32)) & mask;
+        while (true) {
+            int e = slots[slot];
+            if (e == EMPTY) {
+                insert(slot, id, words, start, end, count);
+                return;
+            }
+            if (ids[e] == id) {
+                if (wordEquals(e, words, start, end)) {
+                    counts[e] += count;
+                } else {
+                    collisions.merge(new String(words, start, end - start, UTF_8), count, Long::sum);
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean wordEquals(int index, byte[] words, int start, int end) {
+        int storedStart = wordStarts[index];
+        int len = end - start;
+        if (wordStarts[index + 1] - storedStart != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (arena[storedStart + i] != words[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, long id, byte[] words, int start, int end, long count) {
+        int arenaStart = wordStarts[size];
+        int len = end - start;
+        if (arenaStart + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaStart + len));
+        }
+        System.arraycopy(words, start, arena, arenaStart, len);
+        slots[slot] = size;
+        ids[size] = id;
+        counts[size] = count;
+        wordStarts[size + 1] = arenaStart + len;
+        size++;
+        if (size == threshold) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        allocateSlots(2 * slots.length);
+        ids = Arrays.copyOf(ids, threshold);
+        counts = Arrays.copyOf(counts, threshold);
+        wordStarts = Arrays.copyOf(wordStarts, threshold + 1);
+        for (int e = 0; e < size; e++) {
+            int slot = (int) (ids[e] ^ (ids[e] >>> 32)) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = e;
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+    }
+
+    private Traverser<Entry<String, Long>> entries() {
+        int[] index = {0};
+        return () -> {
+            if (index[0] == size) {
+                return null;
+            }
+            int i = index[0]++;
+            String word = new String(arena, wordStarts[i], wordStarts[i + 1] - wordStarts[i], UTF_8);
+            return entry(word, counts[i]);
+        };
+    }
+}
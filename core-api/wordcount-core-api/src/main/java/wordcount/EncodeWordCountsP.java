@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+
+import javax.annotation.Nonnull;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import static com.hazelcast.jet.Traversers.lazy;
+import static com.hazelcast.jet.Traversers.traverseArray;
+
+/**
+ * The accumulating stage of the word count with a batched shuffle. It counts
+ * the words ({@code CharSequence} items) or the partial counts ({@code
+ * (word, count)} entries from {@link TokenizeAndCountP}) it receives just
+ * like {@link CountWordsP} does, but when it completes it emits one {@link WordCountBatch} per
+ * Hazelcast partition instead of one {@code (word, count)} entry per word.
+ * Send its output to {@link DecodeWordCountsP} over an edge partitioned by
+ * {@link WordCountBatch#partitionId()}.
+ */
+public final class EncodeWordCountsP extends AbstractProcessor {
+
+    private final WordCounter counter = new WordCounter();
+    private final Traverser<WordCountBatch> batchTraverser = lazy(this::encode);
+    private int partitionCount;
+
+    @Override
+    protected void init(@Nonnull Context context) {
+        partitionCount = context.jetInstance().getHazelcastInstance().getPartitionService().getPartitions().size();
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (item instanceof Entry) {
+            @SuppressWarnings("unchecked")
+            Entry<String, Long> e = (Entry<String, Long>) item;
+            counter.add(e.getKey(), e.getValue());
+        } else {
+            counter.add((CharSequence) item, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(batchTraverser);
+    }
+
+    private Traverser<WordCountBatch> encode() {
+        WordCountBatch[] batches = new WordCountBatch[partitionCount];
+        Traverser<Entry<String, Long>> entries = counter.entries();
+        Entry<String, Long> e;
+        while ((e = entries.next()) != null) {
+            long id = WordCountBatch.wordId(e.getKey());
+            int partitionId = WordCountBatch.partitionOf(id, partitionCount);
+            if (batches[partitionId] == null) {
+                batches[partitionId] = new WordCountBatch(partitionId);
+            }
+            batches[partitionId].add(e.getKey(), e.getValue());
+        }
+        return traverseArray(batches).filter(Objects::nonNull);
+    }
+}
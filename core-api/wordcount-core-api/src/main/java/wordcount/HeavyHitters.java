@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.aggregate.AggregateOperation;
+import com.hazelcast.jet.aggregate.AggregateOperation1;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import static com.hazelcast.jet.Util.entry;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingLong;
+
+/**
+ * Finds the most frequent words approximately, in memory that doesn't depend
+ * on the number of distinct words. It combines two summaries:
+ * <ul><li>
+ *     a <em>Space-Saving</em> list that monitors at most {@code capacity}
+ *     words. A word that isn't monitored replaces the one with the smallest
+ *     count and inherits that count, so the counts never underestimate and
+ *     every word that occurs more than {@code total / capacity} times is
+ *     guaranteed to be on the list;
+ * </li><li>
+ *     a {@link CountMinSketch} that gives a second upper bound for the count
+ *     of each word, with an error of at most {@code epsilon * total} with
+ *     probability {@code 1 - delta}.
+ * </li></ul>
+ * The reported count of each monitored word is the smaller of the two upper
+ * bounds. Both summaries are mergeable, so {@link #heavyHitters} makes them
+ * into an aggregate operation whose accumulators can be combined across
+ * processors and members.
+ */
+public final class HeavyHitters implements DataSerializable {
+
+    private int capacity;
+    private CountMinSketch sketch;
+    private Map<String, long[]> monitored;
+    /** Each monitored word with its count at the time it was added, smallest first. */
+    private PriorityQueue<Counter> byCount;
+
+    /**
+     * Used by deserialization.
+     */
+    public HeavyHitters() {
+    }
+
+    public HeavyHitters(int capacity, double epsilon, double delta) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.sketch = new CountMinSketch(epsilon, delta);
+        this.monitored = new HashMap<>();
+        this.byCount = new PriorityQueue<>(comparingLong((Counter c) -> c.count));
+    }
+
+    /**
+     * Returns an aggregate operation that finds the heavy hitters among the
+     * words ({@code CharSequence} items) it receives. Its result is the list of
+     * the monitored {@code (word, estimatedCount)} entries, highest count
+     * first.
+     *
+     * @param capacity the number of words monitored by each accumulator
+     * @param epsilon the maximum error of the sketch, relative to the total
+     *                number of words
+     * @param delta the probability that the sketch exceeds the maximum error
+     */
+    @Nonnull
+    public static AggregateOperation1<CharSequence, HeavyHitters, List<Entry<String, Long>>> heavyHitters(
+            int capacity, double epsilon, double delta
+    ) {
+        // fail fast on invalid arguments instead of on the members
+        new HeavyHitters(capacity, epsilon, delta);
+        return AggregateOperation
+                .withCreate(() -> new HeavyHitters(capacity, epsilon, delta))
+                .<CharSequence>andAccumulate(HeavyHitters::accumulate)
+                .andCombine(HeavyHitters::combine)
+                .andExportFinish(HeavyHitters::result);
+    }
+
+    /**
+     * Counts one occurrence of the given word.
+     */
+    public void accumulate(@Nonnull CharSequence word) {
+        String w = word.toString();
+        sketch.add(WordCountBatch.wordId(w), 1);
+        offer(w, 1);
+    }
+
+    /**
+     * Merges the other accumulator into this one. A word that only one of
+     * them monitors gets the smallest count of the other one added, since
+     * it may have occurred that many times in its input without being
+     * monitored. Of the merged words, the {@code capacity} ones with the
+     * highest counts remain monitored.
+     */
+    public void combine(@Nonnull HeavyHitters other) {
+        sketch.merge(other.sketch);
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        List<Counter> merged = new ArrayList<>(monitored.size() + other.monitored.size());
+        monitored.forEach((word, count) -> {
+            long[] otherCount = other.monitored.get(word);
+            merged.add(new Counter(word, count[0] + (otherCount != null ? otherCount[0] : otherMin)));
+        });
+        other.monitored.forEach((word, count) -> {
+            if (!monitored.containsKey(word)) {
+                merged.add(new Counter(word, count[0] + thisMin));
+            }
+        });
+        merged.sort(comparingLong((Counter c) -> c.count).reversed());
+        monitored.clear();
+        byCount.clear();
+        for (Counter c : merged.subList(0, Math.min(capacity, merged.size()))) {
+            monitored.put(c.word, new long[] {c.count});
+            byCount.add(c);
+        }
+    }
+
+    /**
+     * Returns the monitored words with their estimated counts, highest count
+     * first.
+     */
+    @Nonnull
+    public List<Entry<String, Long>> result() {
+        List<Entry<String, Long>> result = new ArrayList<>(monitored.size());
+        monitored.forEach((word, count) ->
+                result.add(entry(word, Math.min(count[0], sketch.estimate(WordCountBatch.wordId(word))))));
+        result.sort(comparing((Entry<String, Long> e) -> -e.getValue()).thenComparing(Entry::getKey));
+        return result;
+    }
+
+    private void offer(String word, long count) {
+        long[] current = monitored.get(word);
+        if (current != null) {
+            current[0] += count;
+            return;
+        }
+        long newCount = count;
+        if (monitored.size() == capacity) {
+            Counter min = pollMin();
+            monitored.remove(min.word);
+            newCount += min.count;
+        }
+        monitored.put(word, new long[] {newCount});
+        byCount.add(new Counter(word, newCount));
+    }
+
+    /**
+     * Returns the smallest count of a monitored word if all the {@code
+     * capacity} slots are taken and zero otherwise.
+     */
+    private long minCount() {
+        if (monitored.size() < capacity) {
+            return 0;
+        }
+        Counter min = pollMin();
+        byCount.add(min);
+        return min.count;
+    }
+
+    /**
+     * Removes and returns the counter of the monitored word with the smallest
+     * count. The counts in the queue are updated lazily: the counts only
+     * grow, so a counter with an outdated count is put back with the current
+     * one until the head of the queue is up to date.
+     */
+    private Counter pollMin() {
+        while (true) {
+            Counter head = byCount.poll();
+            long current = monitored.get(head.word)[0];
+            if (current == head.count) {
+                return head;
+            }
+            byCount.add(new Counter(head.word, current));
+        }
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeObject(sketch);
+        out.writeInt(monitored.size());
+        for (Entry<String, long[]> e : monitored.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue()[0]);
+        }
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        capacity = in.readInt();
+        sketch = in.readObject();
+        int size = in.readInt();
+        monitored = new HashMap<>();
+        byCount = new PriorityQueue<>(comparingLong((Counter c) -> c.count));
+        for (int i = 0; i < size; i++) {
+            Counter c = new Counter(in.readUTF(), in.readLong());
+            monitored.put(c.word, new long[] {c.count});
+            byCount.add(c);
+        }
+    }
+
+    private static final class Counter {
+        final String word;
+        final long count;
+
+        Counter(String word, long count) {
+            this.word = word;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * A hash table that maps 64-bit n-gram keys (see {@link NGramWindow}) to
+ * {@code long} counts without allocating an object per n-gram. Like {@link
+ * WordCounter}, it uses open addressing with linear probing and parallel
+ * primitive arrays.
+ * <p>
+ * The table exchanges n-grams as <em>records</em>: {@code long[]} arrays
+ * that hold the key and the count, in this order.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class NGramCounter {
+
+    /** The index of the key in a record. */
+    public static final int KEY = 0;
+    /** The index of the count in a record. */
+    public static final int COUNT = 1;
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int EMPTY = -1;
+
+    /** Entry index for each slot, {@value #EMPTY} if the slot is free. */
+    private int[] slots;
+    private int mask;
+    private int threshold;
+
+    private long[] keys;
+    private long[] counts;
+    private int size;
+
+    public NGramCounter() {
+        allocateSlots(INITIAL_CAPACITY);
+        keys = new long[threshold];
+        counts = new long[threshold];
+    }
+
+    /**
+     * Adds {@code delta} to the count of the n-gram with the given key.
+     */
+    public void add(long key, long delta) {
+        int slot = slot(key);
+        while (true) {
+            int e = slots[slot];
+            if (e == EMPTY) {
+                insert(slot, key, delta);
+                return;
+            }
+            if (keys[e] == key) {
+                counts[e] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds the count of the given record.
+     */
+    public void add(@Nonnull long[] record) {
+        add(record[KEY], record[COUNT]);
+    }
+
+    /**
+     * Returns the number of distinct n-grams in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the n-grams from the table. It keeps the arrays it has
+     * grown so far.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Returns the count of the entry at the given index, {@code 0 <= index <
+     * size()}.
+     */
+    public long countAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Returns the record of the entry at the given index, {@code 0 <= index <
+     * size()}.
+     */
+    @Nonnull
+    public long[] recordAt(int index) {
+        return new long[] {keys[index], counts[index]};
+    }
+
+    /**
+     * Returns a traverser over the records of the table. A record is
+     * allocated for each n-gram as the traverser reaches it. The table must
+     * not be modified while traversing.
+     */
+    @Nonnull
+    public Traverser<long[]> records() {
+        return new Traverser<long[]>() {
+            private int index;
+
+            @Override
+            public long[] next() {
+                return index == size ? null : recordAt(index++);
+            }
+        };
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void insert(int slot, long key, long delta) {
+        slots[slot] = size;
+        keys[size] = key;
+        counts[size] = delta;
+        size++;
+        if (size == threshold) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        allocateSlots(2 * slots.length);
+        keys = Arrays.copyOf(keys, threshold);
+        counts = Arrays.copyOf(counts, threshold);
+        for (int e = 0; e < size; e++) {
+            int slot = slot(keys[e]);
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = e;
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+    }
+}
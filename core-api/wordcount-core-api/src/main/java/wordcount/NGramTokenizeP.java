@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+import shared.WordTokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.function.Consumer;
+
+/**
+ * A tokenizer that counts the n-grams, the sequences of {@code n}
+ * consecutive words within a line, without building their text. It splits
+ * the lines it receives into words just like {@link shared.TokenizeP} and slides
+ * an {@link NGramWindow} over them, which gives the 64-bit key of each
+ * n-gram in constant time per word. It counts the keys in a local {@link
+ * NGramCounter} and emits the counts as its {@code (key, count)} records,
+ * with the same memory bound and flushing as {@link TokenizeAndCountP}.
+ * <p>
+ * The text of the n-grams that make it to the top is found afterwards by
+ * {@link ResolveNGramsP}.
+ */
+public final class NGramTokenizeP extends AbstractProcessor {
+
+    private final int maxDistinctNGrams;
+    private final WordTokenizer tokenizer = new WordTokenizer();
+    private final NGramWindow window;
+    private final NGramCounter counter = new NGramCounter();
+    private final Consumer<CharSequence> addWord = this::addWord;
+    private Traverser<long[]> flushTraverser;
+
+    private NGramTokenizeP(int n, int maxDistinctNGrams) {
+        this.maxDistinctNGrams = maxDistinctNGrams;
+        this.window = new NGramWindow(n);
+    }
+
+    /**
+     * Returns a supplier of processors that receive lines of text ({@code
+     * CharSequence} items) and emit {@link NGramCounter} records of the
+     * n-grams with the given {@code n}, keeping at most {@code
+     * maxDistinctNGrams} n-grams between flushes.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> nGramTokenizeP(int n, int maxDistinctNGrams) {
+        if (n <= 0 || maxDistinctNGrams <= 0) {
+            throw new IllegalArgumentException("n=" + n + ", maxDistinctNGrams=" + maxDistinctNGrams);
+        }
+        return () -> new NGramTokenizeP(n, maxDistinctNGrams);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (!flush()) {
+            return false;
+        }
+        window.reset();
+        tokenizer.forEachToken((CharSequence) item, addWord);
+        if (counter.size() >= maxDistinctNGrams) {
+            flushTraverser = counter.records();
+            flush();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        if (!flush()) {
+            return false;
+        }
+        if (counter.size() > 0) {
+            flushTraverser = counter.records();
+            return flush();
+        }
+        return true;
+    }
+
+    private void addWord(CharSequence word) {
+        if (window.add(word, tokenizer.tokenStart())) {
+            counter.add(window.key(), 1);
+        }
+    }
+
+    /**
+     * Emits the pending records, if any, and clears the counter once they
+     * are all emitted. Returns whether there's nothing left to emit.
+     */
+    private boolean flush() {
+        if (flushTraverser == null) {
+            return true;
+        }
+        if (!emitFromTraverser(flushTraverser)) {
+            return false;
+        }
+        flushTraverser = null;
+        counter.clear();
+        return true;
+    }
+}
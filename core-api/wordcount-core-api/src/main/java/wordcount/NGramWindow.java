@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package wordcount;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+import static shared.WordTokenizer.fold;
+import static wordcount.WordCountBatch.wordId;
+
+/**
+ * A sliding window over the last {@code n} words of a line that keeps the
+ * 64-bit key of the n-gram they form. The key is a polynomial rolling hash
+ * of the word ids (see {@link WordCountBatch#wordId}), which the window
+ * updates in constant time per word, so no text is built to identify an
+ * n-gram. The window also remembers where in the line each of its words
+ * starts, so the caller can build the text of an n-gram when it needs it.
+ * <p>
+ * Two distinct n-grams with the same 64-bit key are taken as one. With the
+ * number of distinct n-grams in a book corpus this is unlikely enough to
+ * ignore.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class NGramWindow {
+
+    /**
+     * The base of the rolling hash. It must not be the FNV prime: the word
+     * ids are multiples of it, and combining them with it again makes
+     * distinct n-grams collide.
+     */
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final int n;
+    private final long highestPower;
+    private final long[] ids;
+    /** The index in the line at which each word in the window starts. */
+    private final int[] starts;
+    private final StringBuilder textBuilder = new StringBuilder();
+    private int size;
+    private long rollingHash;
+
+    NGramWindow(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n=" + n);
+        }
+        this.n = n;
+        this.ids = new long[n];
+        this.starts = new int[n];
+        long power = 1;
+        for (int i = 1; i < n; i++) {
+            power *= MULTIPLIER;
+        }
+        this.highestPower = power;
+    }
+
+    /**
+     * Empties the window before the words of a new line.
+     */
+    void reset() {
+        Arrays.fill(ids, 0);
+        size = 0;
+        rollingHash = 0;
+    }
+
+    /**
+     * Slides the window by one word that starts at the given index in the
+     * line. The words that fell out of the window, and the zeros the window
+     * starts with, are subtracted from the hash together with their weight,
+     * so the hash always equals {@code id[0] * M^(n-1) + ... + id[n-1]} over
+     * the ids in the window. Returns whether the window now holds {@code n}
+     * words.
+     */
+    boolean add(@Nonnull CharSequence word, int start) {
+        long id = wordId(word);
+        rollingHash = (rollingHash - ids[0] * highestPower) * MULTIPLIER + id;
+        System.arraycopy(ids, 1, ids, 0, n - 1);
+        System.arraycopy(starts, 1, starts, 0, n - 1);
+        ids[n - 1] = id;
+        starts[n - 1] = start;
+        size++;
+        return size >= n;
+    }
+
+    /**
+     * Returns the key of the n-gram in the full window. It spreads the bits
+     * of the rolling hash, which are poorly mixed in the low-order word ids,
+     * over the whole key.
+     */
+    long key() {
+        long h = rollingHash;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Builds the text of the n-gram in the full window, given the line and
+     * the index at which its last word ends: the lowercase words separated
+     * by single spaces.
+     */
+    @Nonnull
+    String text(@Nonnull CharSequence line, int end) {
+        textBuilder.setLength(0);
+        for (int i = starts[0]; i < end; i++) {
+            char c = fold(line.charAt(i));
+            if (c != 0) {
+                textBuilder.append(c);
+            } else if (textBuilder.charAt(textBuilder.length() - 1) != ' ') {
+                textBuilder.append(' ');
+            }
+        }
+        return textBuilder.toString();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.JetException;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.ProcessorMetaSupplier;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A source processor that reads the books from the {@link Books} directory
+ * and emits their lines. Each book file is divided into chunks of
+ * {@value #CHUNK_SIZE} bytes and the chunks of all the books are dealt out
+ * round-robin to all the processors in the cluster. A processor memory-maps
+ * the file region of each of its chunks, plus up to {@value #LINE_TAIL}
+ * bytes past its end, and emits all the lines that <em>start</em> within
+ * the chunk:
+ * <ul><li>
+ *     if the chunk doesn't start at the beginning of the file, the processor
+ *     skips the partial line at its start; it belongs to the previous chunk
+ * </li><li>
+ *     the last line of the chunk is read to its end even if that is beyond
+ *     the end of the chunk; if it is even beyond the mapped tail, the
+ *     processor maps a region twice as large, until it finds the end of the
+ *     line
+ * </li></ul>
+ * Each mapping takes little more than the chunk itself, so the mappings of
+ * the chunks hardly overlap. This way every line is emitted exactly once and the reading is spread
+ * across all the cooperative threads of all the members, even if there is
+ * just a single big book.
+ * <p>
+ * {@link #readBookChunksP} creates processors that don't decode the lines:
+ * they emit each chunk as a single read-only {@code ByteBuffer} with the raw
+ * UTF-8 bytes of the lines that start within it, for {@link CountWordBytesP}
+ * to tokenize. The buffers are views of the memory-mapped file, so the edge
+ * to the tokenizer must be local.
+ * <p>
+ * {@link #readCachedBooksP} creates processors that read the books from a
+ * {@link CorpusCache} in memory instead of the files.
+ * <p>
+ * Every member must be able to find the books on its own classpath.
+ */
+public final class ReadBooksP extends AbstractProcessor {
+
+    static final int CHUNK_SIZE = 1 << 20;
+    /** How far past the end of a chunk to map, to find the end of its last line. */
+    static final int LINE_TAIL = 1 << 14;
+
+    private final List<String> bookNames;
+    private final boolean cached;
+    private final Queue<Chunk> chunks = new ArrayDeque<>();
+    private final Traverser<?> output;
+
+    private ByteBuffer buffer;
+    private int position;
+    private int lineStartLimit;
+    private byte[] lineBytes = new byte[256];
+
+    private ReadBooksP(List<String> bookNames, boolean emitChunks, boolean cached) {
+        this.bookNames = bookNames;
+        this.cached = cached;
+        this.output = emitChunks ? (Traverser<ByteBuffer>) this::nextChunk : (Traverser<String>) this::nextLine;
+    }
+
+    /**
+     * Returns a meta-supplier of processors that read the books with the
+     * given names, as listed in the {@code books} index file.
+     */
+    @Nonnull
+    public static ProcessorMetaSupplier readBooksP(@Nonnull List<String> bookNames) {
+        List<String> names = new ArrayList<>(bookNames);
+        return ProcessorMetaSupplier.of(() -> new ReadBooksP(names, false, false));
+    }
+
+    /**
+     * Returns a meta-supplier of processors that read the books with the
+     * given names and emit their line-aligned chunks as {@code ByteBuffer}s
+     * of undecoded UTF-8 text.
+     */
+    @Nonnull
+    public static ProcessorMetaSupplier readBookChunksP(@Nonnull List<String> bookNames) {
+        List<String> names = new ArrayList<>(bookNames);
+        return ProcessorMetaSupplier.of(() -> new ReadBooksP(names, true, false));
+    }
+
+    /**
+     * Returns a meta-supplier of processors that read the books with the
+     * given names from this JVM's {@link CorpusCache} instead of the files.
+     * The processors load the books into the cache if they aren't there yet,
+     * so call {@link CorpusCache#of} on each member before running the job
+     * to keep the loading out of the measurement.
+     */
+    @Nonnull
+    public static ProcessorMetaSupplier readCachedBooksP(@Nonnull List<String> bookNames) {
+        List<String> names = new ArrayList<>(bookNames);
+        return ProcessorMetaSupplier.of(() -> new ReadBooksP(names, false, true));
+    }
+
+    @Override
+    protected void init(@Nonnull Context context) throws Exception {
+        int totalParallelism = context.totalParallelism();
+        int processorIndex = context.globalProcessorIndex();
+        CorpusCache cache = cached ? CorpusCache.of(bookNames) : null;
+        long chunkSeq = 0;
+        for (int i = 0; i < bookNames.size(); i++) {
+            Path path = Books.bookPath(bookNames.get(i));
+            ByteBuffer cachedBook = cache != null ? cache.book(i) : null;
+            long fileSize = cachedBook != null ? cachedBook.remaining() : Files.size(path);
+            for (long start = 0; start < fileSize; start += CHUNK_SIZE, chunkSeq++) {
+                if (chunkSeq % totalParallelism == processorIndex) {
+                    chunks.add(new Chunk(path, cachedBook, fileSize, start, Math.min(start + CHUNK_SIZE, fileSize)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(output);
+    }
+
+    private ByteBuffer nextChunk() {
+        while (!chunks.isEmpty()) {
+            mapChunk(chunks.poll());
+            if (position < lineStartLimit) {
+                // the last line that starts within the chunk ends at the first
+                // newline at or after the chunk's last byte
+                int end = Math.min(indexOfNewline(lineStartLimit - 1) + 1, buffer.limit());
+                // cast to Buffer for the methods that are covariant since JDK 9
+                Buffer slice = buffer.duplicate();
+                slice.limit(end);
+                slice.position(position);
+                return ((ByteBuffer) slice).slice().asReadOnlyBuffer();
+            }
+        }
+        buffer = null;
+        return null;
+    }
+
+    private String nextLine() {
+        while (buffer == null || position >= lineStartLimit) {
+            if (chunks.isEmpty()) {
+                buffer = null;
+                return null;
+            }
+            mapChunk(chunks.poll());
+        }
+        int lineEnd = indexOfNewline(position);
+        int nextPosition = lineEnd + 1;
+        if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        String line = decode(position, lineEnd);
+        position = nextPosition;
+        return line;
+    }
+
+    private void mapChunk(Chunk chunk) {
+        // We map from one byte before the chunk to see whether it starts
+        // at the beginning of a line and a bit past its end, where the last
+        // line that starts within the chunk probably ends
+        long mapStart = Math.max(0, chunk.start - 1);
+        long mapEnd = Math.min(chunk.end + LINE_TAIL, chunk.fileSize);
+        buffer = map(chunk, mapStart, mapEnd);
+        lineStartLimit = (int) (chunk.end - mapStart);
+        // if the last line goes on past the mapped region, map a region twice as large
+        while (mapEnd < chunk.fileSize && mapEnd - mapStart < Integer.MAX_VALUE
+                && indexOfNewline(lineStartLimit - 1) == buffer.limit()) {
+            mapEnd = Math.min(mapStart + Math.min(2 * (mapEnd - mapStart), Integer.MAX_VALUE), chunk.fileSize);
+            buffer = map(chunk, mapStart, mapEnd);
+        }
+        position = chunk.start == 0 ? 0 : indexOfNewline(0) + 1;
+    }
+
+    private static ByteBuffer map(Chunk chunk, long start, long end) {
+        if (chunk.cachedBook != null) {
+            // cast to Buffer for the methods that are covariant since JDK 9
+            Buffer view = chunk.cachedBook.duplicate();
+            view.limit((int) end);
+            view.position((int) start);
+            return ((ByteBuffer) view).slice();
+        }
+        try (FileChannel channel = FileChannel.open(chunk.path, READ)) {
+            return channel.map(READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new JetException("Failed to map " + chunk.path, e);
+        }
+    }
+
+    /**
+     * Returns the index of the first newline at or after {@code from} or the
+     * buffer's limit if there isn't one.
+     */
+    private int indexOfNewline(int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private String decode(int from, int to) {
+        int len = to - from;
+        if (len > lineBytes.length) {
+            lineBytes = new byte[Math.max(len, 2 * lineBytes.length)];
+        }
+        for (int i = 0; i < len; i++) {
+            lineBytes[i] = buffer.get(from + i);
+        }
+        return new String(lineBytes, 0, len, UTF_8);
+    }
+
+    private static final class Chunk {
+        final Path path;
+        final ByteBuffer cachedBook;
+        final long fileSize;
+        final long start;
+        final long end;
+
+        Chunk(Path path, ByteBuffer cachedBook, long fileSize, long start, long end) {
+            this.path = path;
+            this.cachedBook = cachedBook;
+            this.fileSize = fileSize;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
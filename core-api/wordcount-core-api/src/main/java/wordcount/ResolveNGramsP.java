@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package wordcount;
+
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+import shared.WordTokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+import static com.hazelcast.jet.Util.entry;
+
+/**
+ * Finds the text of the n-grams with the given keys. It reads the lines
+ * again, slides an {@link NGramWindow} over their words just like {@link
+ * NGramTokenizeP} and, when the window's key is one it looks for, builds
+ * the text of the n-gram and emits a {@code (key, text)} entry. Each key is
+ * emitted at most once per processor; once a processor has found all the
+ * keys, it ignores the rest of its lines.
+ * <p>
+ * This way the job that counts the n-grams deals with 64-bit keys only,
+ * and text is built just for its top results. The keys are looked up by a
+ * binary search in a sorted array, so the lookup doesn't allocate anything
+ * either.
+ */
+public final class ResolveNGramsP extends AbstractProcessor {
+
+    private final long[] keys;
+    private final boolean[] found;
+    private final WordTokenizer tokenizer = new WordTokenizer();
+    private final NGramWindow window;
+    private final Consumer<CharSequence> addWord = this::addWord;
+    private final Queue<Entry<Long, String>> pending = new ArrayDeque<>();
+    private CharSequence line;
+    private int remaining;
+
+    private ResolveNGramsP(int n, long[] sortedKeys) {
+        this.keys = sortedKeys;
+        this.found = new boolean[sortedKeys.length];
+        this.remaining = sortedKeys.length;
+        this.window = new NGramWindow(n);
+    }
+
+    /**
+     * Returns a supplier of processors that receive lines of text ({@code
+     * CharSequence} items) and emit {@code (key, text)} entries for the
+     * n-grams with the given {@code n} and keys.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> resolveNGramsP(int n, @Nonnull long[] keys) {
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        return () -> new ResolveNGramsP(n, sortedKeys);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (!emitPending()) {
+            return false;
+        }
+        if (remaining > 0) {
+            line = (CharSequence) item;
+            window.reset();
+            tokenizer.forEachToken(line, addWord);
+            line = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitPending();
+    }
+
+    private void addWord(CharSequence word) {
+        int start = tokenizer.tokenStart();
+        if (!window.add(word, start)) {
+            return;
+        }
+        long key = window.key();
+        int index = Arrays.binarySearch(keys, key);
+        if (index >= 0 && !found[index]) {
+            found[index] = true;
+            remaining--;
+            pending.add(entry(key, window.text(line, start + word.length())));
+        }
+    }
+
+    private boolean emitPending() {
+        for (Entry<Long, String> e; (e = pending.peek()) != null; pending.remove()) {
+            if (!tryEmit(e)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
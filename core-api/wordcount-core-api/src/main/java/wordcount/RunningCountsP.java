@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import static com.hazelcast.jet.Traversers.traverseIterable;
+import static com.hazelcast.jet.Util.entry;
+
+/**
+ * Keeps the running total count of each word it receives, for a streaming
+ * job that never completes. Whenever it has drained its inbox, it emits a
+ * {@code (word, totalCount)} entry for each word whose count has changed
+ * since the previous time, so the sink overwrites the old totals with the
+ * new ones. Unlike adding up the deltas, overwriting is idempotent: a total
+ * that reaches the sink twice, for example after the job has restarted from
+ * a snapshot, doesn't distort the result.
+ * <p>
+ * The totals are saved to the state snapshot, keyed by the word. Jet
+ * restores each entry to the processor that owns the word's partition, so
+ * the edge to this processor must be distributed and partitioned by the
+ * word with the default partitioner. After restoring, the processor emits
+ * all its totals once more because the last ones it emitted before the
+ * snapshot may have been lost.
+ */
+public final class RunningCountsP extends AbstractProcessor {
+
+    private final Map<String, long[]> totals = new HashMap<>();
+    private final Set<String> changedWords = new HashSet<>();
+    private Traverser<Entry<String, Long>> changedTraverser;
+    private Traverser<Entry<String, Long>> snapshotTraverser;
+
+    private RunningCountsP() {
+    }
+
+    /**
+     * Returns a supplier of processors that receive words ({@code String}
+     * items) and emit {@code (word, totalCount)} entries as the totals
+     * change.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> runningCountsP() {
+        return RunningCountsP::new;
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        // only finish an emission in progress; new ones start once the inbox is drained
+        if (changedTraverser != null && !emitChangedTotals()) {
+            return false;
+        }
+        String word = (String) item;
+        totals.computeIfAbsent(word, w -> new long[1])[0]++;
+        changedWords.add(word);
+        return true;
+    }
+
+    @Override
+    public boolean tryProcess() {
+        return emitChangedTotals();
+    }
+
+    @Override
+    public boolean complete() {
+        return emitChangedTotals();
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotTraverser == null) {
+            snapshotTraverser = traverseIterable(totals.entrySet())
+                    .map(e -> entry(e.getKey(), e.getValue()[0]))
+                    .onFirstNull(() -> snapshotTraverser = null);
+        }
+        return emitFromTraverserToSnapshot(snapshotTraverser);
+    }
+
+    @Override
+    protected void restoreFromSnapshot(@Nonnull Object key, @Nonnull Object value) {
+        String word = (String) key;
+        totals.put(word, new long[] {(Long) value});
+        changedWords.add(word);
+    }
+
+    private boolean emitChangedTotals() {
+        if (changedTraverser == null) {
+            if (changedWords.isEmpty()) {
+                return true;
+            }
+            Iterator<String> words = changedWords.iterator();
+            changedTraverser = () -> {
+                if (!words.hasNext()) {
+                    return null;
+                }
+                String word = words.next();
+                words.remove();
+                return entry(word, totals.get(word)[0]);
+            };
+        }
+        if (!emitFromTraverser(changedTraverser)) {
+            return false;
+        }
+        changedTraverser = null;
+        return true;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package wordcount;
+
+import com.hazelcast.jet.JetException;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.BroadcastKey;
+import com.hazelcast.jet.core.ProcessorMetaSupplier;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hazelcast.jet.Traversers.traverseIterable;
+import static com.hazelcast.jet.Util.entry;
+import static com.hazelcast.jet.core.BroadcastKey.broadcastKey;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A streaming source processor that watches a directory of books and emits
+ * the lines that are added to it, either as new files or appended to the
+ * existing ones. It never completes.
+ * <p>
+ * The files are dealt out to all the processors in the cluster by the hash
+ * of their names, so the directory must be on a file system that all the
+ * members share. Every {@code pollIntervalMillis} each processor lists the
+ * directory and reads its files that have grown since it last saw them, in
+ * chunks of up to {@value #CHUNK_SIZE} bytes. It only emits complete lines,
+ * the ones terminated by a newline, so it doesn't split a line that is
+ * still being written; it will emit it once its newline arrives. Until the
+ * file grows past the size it had when the processor read it, the processor
+ * doesn't read the unfinished line again. The files
+ * are expected to only grow: a file that shrinks is ignored until it grows
+ * beyond the previous size.
+ * <p>
+ * For each file the processor remembers the offset of the first byte it
+ * hasn't emitted yet and saves the offsets to the state snapshot. When the
+ * job restarts from a snapshot, the processors continue from the saved
+ * offsets instead of reading the whole directory again. The offsets are
+ * saved under broadcast keys, so the files find their owners even if the
+ * parallelism of the job has changed.
+ */
+public final class StreamBooksP extends AbstractProcessor {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private static final long MAX_IDLE_PARK_NANOS = MILLISECONDS.toNanos(10);
+
+    private final Path directory;
+    private final long pollIntervalNanos;
+    private final Map<String, Long> offsets = new HashMap<>();
+    /** The size of each file when the processor last read to its end. */
+    private final Map<String, Long> scannedSizes = new HashMap<>();
+    private final Queue<Path> grownFiles = new ArrayDeque<>();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private int totalParallelism;
+    private int processorIndex;
+    private long nextPollNanos;
+    private Traverser<Entry<BroadcastKey<String>, Long>> snapshotTraverser;
+
+    private Path file;
+    private long chunkStart;
+    private int position;
+    private int lineStartLimit;
+    private boolean chunkFull;
+    private String pendingLine;
+    private int pendingLineEnd;
+
+    private StreamBooksP(String directory, long pollIntervalMillis) {
+        this.directory = Paths.get(directory);
+        this.pollIntervalNanos = MILLISECONDS.toNanos(pollIntervalMillis);
+    }
+
+    /**
+     * Returns a meta-supplier of processors that watch the given directory
+     * and emit the lines added to its files, looking for new data every
+     * {@code pollIntervalMillis} milliseconds.
+     */
+    @Nonnull
+    public static ProcessorMetaSupplier streamBooksP(@Nonnull String directory, long pollIntervalMillis) {
+        return ProcessorMetaSupplier.of(() -> new StreamBooksP(directory, pollIntervalMillis));
+    }
+
+    @Override
+    public boolean isCooperative() {
+        return false;
+    }
+
+    @Override
+    protected void init(@Nonnull Context context) {
+        totalParallelism = context.totalParallelism();
+        processorIndex = context.globalProcessorIndex();
+        nextPollNanos = System.nanoTime();
+    }
+
+    @Override
+    public boolean complete() {
+        if (!emitLines()) {
+            return false;
+        }
+        if (file != null) {
+            offsets.put(file.getFileName().toString(), chunkStart + position);
+            Path readFile = file;
+            file = null;
+            if (chunkFull) {
+                readChunk(readFile);
+                return false;
+            }
+        }
+        if (!grownFiles.isEmpty()) {
+            readChunk(grownFiles.poll());
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - nextPollNanos >= 0) {
+            nextPollNanos = now + pollIntervalNanos;
+            findGrownFiles();
+        } else {
+            // Park briefly so that the snapshots don't have to wait for the next poll
+            LockSupport.parkNanos(Math.min(nextPollNanos - now, MAX_IDLE_PARK_NANOS));
+        }
+        return false;
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotTraverser == null) {
+            if (file != null) {
+                offsets.put(file.getFileName().toString(), chunkStart + position);
+            }
+            snapshotTraverser = traverseIterable(offsets.entrySet())
+                    .map(e -> entry(broadcastKey(e.getKey()), e.getValue()))
+                    .onFirstNull(() -> snapshotTraverser = null);
+        }
+        return emitFromTraverserToSnapshot(snapshotTraverser);
+    }
+
+    @Override
+    protected void restoreFromSnapshot(@Nonnull Object key, @Nonnull Object value) {
+        @SuppressWarnings("unchecked")
+        String fileName = ((BroadcastKey<String>) key).key();
+        if (isOwnFile(fileName)) {
+            offsets.put(fileName, (Long) value);
+        }
+    }
+
+    private boolean emitLines() {
+        while (position < lineStartLimit) {
+            if (pendingLine == null) {
+                int lineEnd = indexOfNewline(position);
+                pendingLineEnd = lineEnd + 1;
+                if (lineEnd > position && chunk[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                pendingLine = new String(chunk, position, lineEnd - position, UTF_8);
+            }
+            if (!tryEmit(pendingLine)) {
+                return false;
+            }
+            pendingLine = null;
+            position = Math.min(pendingLineEnd, lineStartLimit);
+        }
+        return true;
+    }
+
+    private int indexOfNewline(int start) {
+        for (int i = start; i < lineStartLimit; i++) {
+            if (chunk[i] == '\n') {
+                return i;
+            }
+        }
+        // a line longer than a whole chunk, emitted in pieces
+        return lineStartLimit;
+    }
+
+    private void findGrownFiles() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path path : files) {
+                String fileName = path.getFileName().toString();
+                if (isOwnFile(fileName) && Files.isRegularFile(path) && Files.size(path) > Math.max(
+                        offsets.getOrDefault(fileName, 0L), scannedSizes.getOrDefault(fileName, 0L))) {
+                    grownFiles.add(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new JetException("Failed to list " + directory, e);
+        }
+    }
+
+    private void readChunk(Path path) {
+        long offset = offsets.getOrDefault(path.getFileName().toString(), 0L);
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            int read = 0;
+            while (read >= 0 && buffer.hasRemaining()) {
+                read = channel.read(buffer, offset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new JetException("Failed to read " + path, e);
+        }
+        file = path;
+        chunkStart = offset;
+        position = 0;
+        chunkFull = !buffer.hasRemaining();
+        scannedSizes.put(path.getFileName().toString(), offset + buffer.position());
+        lineStartLimit = 0;
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (chunk[i] == '\n') {
+                lineStartLimit = i + 1;
+                break;
+            }
+        }
+        if (lineStartLimit == 0 && chunkFull) {
+            lineStartLimit = CHUNK_SIZE;
+        }
+    }
+
+    private boolean isOwnFile(String fileName) {
+        return Math.floorMod(fileName.hashCode(), totalParallelism) == processorIndex;
+    }
+}
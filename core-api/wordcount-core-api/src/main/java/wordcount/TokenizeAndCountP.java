@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+import shared.WordTokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.Map.Entry;
+import java.util.function.Consumer;
+
+/**
+ * A tokenizer that pre-aggregates the words it finds. It splits the lines it
+ * receives into words just like {@link shared.TokenizeP}, but instead of emitting
+ * every occurrence it counts them in a local {@link WordCounter} and emits
+ * {@code (word, partialCount)} entries. It flushes the counter whenever it
+ * holds {@code maxDistinctWords} words and once more when the input is
+ * complete, so its memory stays bounded regardless of the input size.
+ * <p>
+ * The downstream stage must sum up the partial counts, for example with
+ * {@link CountWordsP#combineWordCountsP()}, over an edge partitioned by the
+ * entry key.
+ */
+public final class TokenizeAndCountP extends AbstractProcessor {
+
+    private final int maxDistinctWords;
+    private final WordTokenizer tokenizer = new WordTokenizer();
+    private final WordCounter counter = new WordCounter();
+    private final Consumer<CharSequence> countWord = word -> counter.add(word, 1);
+    private Traverser<Entry<String, Long>> flushTraverser;
+
+    private TokenizeAndCountP(int maxDistinctWords) {
+        this.maxDistinctWords = maxDistinctWords;
+    }
+
+    /**
+     * Returns a supplier of processors that receive lines of text ({@code
+     * CharSequence} items) and emit {@code (word, partialCount)} entries,
+     * keeping at most {@code maxDistinctWords} words between flushes.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> tokenizeAndCountP(int maxDistinctWords) {
+        if (maxDistinctWords <= 0) {
+            throw new IllegalArgumentException("maxDistinctWords must be positive: " + maxDistinctWords);
+        }
+        return () -> new TokenizeAndCountP(maxDistinctWords);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        if (!flush()) {
+            return false;
+        }
+        tokenizer.forEachToken((CharSequence) item, countWord);
+        if (counter.size() >= maxDistinctWords) {
+            flushTraverser = counter.entries();
+            flush();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        if (!flush()) {
+            return false;
+        }
+        if (counter.size() == 0) {
+            return true;
+        }
+        flushTraverser = counter.entries();
+        return flush();
+    }
+
+    /**
+     * Emits the pending partial counts, if any, and clears the counter once
+     * they are all emitted. Returns whether there's nothing left to emit.
+     */
+    private boolean flush() {
+        if (flushTraverser == null) {
+            return true;
+        }
+        if (!emitFromTraverser(flushTraverser)) {
+            return false;
+        }
+        flushTraverser = null;
+        counter.clear();
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.SupplierEx;
+
+import javax.annotation.Nonnull;
+import java.util.Map.Entry;
+
+import static com.hazelcast.jet.Traversers.lazy;
+import static com.hazelcast.jet.Traversers.traverseIterable;
+
+/**
+ * Finds the {@code k} most frequent words among the {@code (word, count)}
+ * entries it receives and emits them, highest count first, when it
+ * completes. It keeps only {@code k} entries in a {@link TopWords} heap.
+ * <p>
+ * Use it in two stages: a local stage after the vertex that emits the
+ * totals, which reduces each processor's share of the words to its top
+ * {@code k}, and a global stage with local parallelism one, connected with
+ * a distributed all-to-one edge, which merges them. This way only {@code k}
+ * entries per processor travel over the network and only {@code k} entries
+ * leave the cluster.
+ */
+public final class TopKP extends AbstractProcessor {
+
+    private final TopWords topWords;
+    private final Traverser<Entry<String, Long>> resultTraverser;
+
+    private TopKP(int k) {
+        topWords = new TopWords(k);
+        resultTraverser = lazy(() -> traverseIterable(topWords.sorted()));
+    }
+
+    /**
+     * Returns a supplier of processors that receive {@code (word, count)}
+     * entries and emit the {@code k} entries with the highest counts.
+     */
+    @Nonnull
+    public static SupplierEx<Processor> topKP(int k) {
+        return () -> new TopKP(k);
+    }
+
+    @Override
+    protected boolean tryProcess(int ordinal, @Nonnull Object item) {
+        @SuppressWarnings("unchecked")
+        Entry<String, Long> e = (Entry<String, Long>) item;
+        topWords.offer(e);
+        return true;
+    }
+
+    @Override
+    public boolean complete() {
+        return emitFromTraverser(resultTraverser);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingLong;
+
+/**
+ * Keeps the {@code k} words with the highest counts seen so far in a min-heap
+ * of at most {@code k} entries, so finding the top words takes {@code O(n log
+ * k)} time and {@code O(k)} memory instead of sorting all {@code n} words.
+ * Words with equal counts are ranked alphabetically.
+ */
+public final class TopWords {
+
+    /** Orders the entries from the lowest to the highest rank. */
+    private static final Comparator<Entry<String, Long>> BY_RANK =
+            comparingLong(Entry<String, Long>::getValue)
+                    .thenComparing(comparing(Entry<String, Long>::getKey).reversed());
+
+    private final int k;
+    private final PriorityQueue<Entry<String, Long>> heap;
+
+    public TopWords(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        this.heap = new PriorityQueue<>(k + 1, BY_RANK);
+    }
+
+    /**
+     * Offers a {@code (word, count)} entry, which is retained only if it
+     * ranks among the top {@code k} entries offered so far.
+     */
+    public void offer(Entry<String, Long> e) {
+        if (heap.size() < k) {
+            heap.add(e);
+        } else if (BY_RANK.compare(e, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(e);
+        }
+    }
+
+    /**
+     * Returns the retained entries, highest count first.
+     */
+    public List<Entry<String, Long>> sorted() {
+        List<Entry<String, Long>> result = new ArrayList<>(heap);
+        result.sort(BY_RANK.reversed());
+        return result;
+    }
+}
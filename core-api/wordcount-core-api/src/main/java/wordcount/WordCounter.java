@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package wordcount;
+
+import com.hazelcast.jet.Traverser;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import static com.hazelcast.jet.Util.entry;
+
+/**
+ * A hash table that maps words to {@code long} counts without allocating an
+ * object per word. It uses open addressing with linear probing. The slot
+ * array holds indices into a set of parallel primitive arrays (hash, key
+ * offset, count) and the characters of all the keys are stored back-to-back
+ * in a single {@code char[]} arena.
+ * <p>
+ * Since the key is passed in as a {@code CharSequence}, the table can be
+ * fed directly from the reusable view of {@link shared.WordTokenizer#token()}: it
+ * only copies the characters when it sees a word for the first time.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class WordCounter {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int INITIAL_ARENA_SIZE = 1 << 13;
+    private static final int EMPTY = -1;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /** Entry index for each slot, {@value #EMPTY} if the slot is free. */
+    private int[] slots;
+    private int mask;
+    private int threshold;
+
+    private int[] hashes;
+    private long[] counts;
+    /** Key {@code i} is {@code arena[keyStarts[i] .. keyStarts[i + 1]]}. */
+    private int[] keyStarts;
+    private char[] arena = new char[INITIAL_ARENA_SIZE];
+    private int size;
+
+    public WordCounter() {
+        allocateSlots(INITIAL_CAPACITY);
+        hashes = new int[threshold];
+        counts = new long[threshold];
+        keyStarts = new int[threshold + 1];
+    }
+
+    /**
+     * Adds {@code delta} to the count of the given word. The table doesn't
+     * retain the {@code word} instance.
+     */
+    public void add(@Nonnull CharSequence word, long delta) {
+        int hash = hash(word);
+        int slot = hash & mask;
+        while (true) {
+            int e = slots[slot];
+            if (e == EMPTY) {
+                insert(slot, word, hash, delta);
+                return;
+            }
+            if (hashes[e] == hash && keyEquals(e, word)) {
+                counts[e] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the number of distinct words in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the words from the table. It keeps the arrays it has
+     * grown so far, so refilling it up to the same size doesn't allocate.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Returns a traverser over the {@code (word, count)} entries of the
+     * table. A {@code String} and an entry are allocated for each word as the
+     * traverser reaches it. The table must not be modified while traversing.
+     */
+    @Nonnull
+    public Traverser<Entry<String, Long>> entries() {
+        return new Traverser<Entry<String, Long>>() {
+            private int index;
+
+            @Override
+            public Entry<String, Long> next() {
+                if (index == size) {
+                    return null;
+                }
+                Entry<String, Long> e = entry(keyAt(index), counts[index]);
+                index++;
+                return e;
+            }
+        };
+    }
+
+    @Nonnull
+    String keyAt(int index) {
+        return new String(arena, keyStarts[index], keyStarts[index + 1] - keyStarts[index]);
+    }
+
+    static int hash(CharSequence word) {
+        int h = 0;
+        for (int i = 0; i < word.length(); i++) {
+            h = 31 * h + word.charAt(i);
+        }
+        h *= GOLDEN_RATIO;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean keyEquals(int index, CharSequence word) {
+        int start = keyStarts[index];
+        int len = keyStarts[index + 1] - start;
+        if (len != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (arena[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, CharSequence word, int hash, long delta) {
+        int start = keyStarts[size];
+        int len = word.length();
+        if (start + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, start + len));
+        }
+        for (int i = 0; i < len; i++) {
+            arena[start + i] = word.charAt(i);
+        }
+        slots[slot] = size;
+        hashes[size] = hash;
+        counts[size] = delta;
+        keyStarts[size + 1] = start + len;
+        size++;
+        if (size == threshold) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        allocateSlots(2 * slots.length);
+        hashes = Arrays.copyOf(hashes, threshold);
+        counts = Arrays.copyOf(counts, threshold);
+        keyStarts = Arrays.copyOf(keyStarts, threshold + 1);
+        for (int e = 0; e < size; e++) {
+            int slot = hashes[e] & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = e;
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmark.jmh;
+
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.core.test.TestInbox;
+import com.hazelcast.jet.core.test.TestOutbox;
+import com.hazelcast.jet.core.test.TestProcessorContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shared.TokenizeP;
+import wordcount.Books;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static com.hazelcast.jet.Traversers.traverseArray;
+import static com.hazelcast.jet.aggregate.AggregateOperations.counting;
+import static com.hazelcast.jet.core.processor.Processors.accumulateByKeyP;
+import static com.hazelcast.jet.core.processor.Processors.flatMapP;
+import static com.hazelcast.jet.function.Functions.wholeItem;
+import static java.util.Collections.singletonList;
+import static wordcount.CountWordsP.accumulateWordsP;
+
+/**
+ * Runs the individual tokenizing and accumulating processors of the word
+ * count DAG in isolation, each one side by side with the stock processor it
+ * replaces. Every invocation pushes the lines (or words) of the first book
+ * through a fresh processor instance. Run with the GC profiler to see the
+ * allocation rate per operation ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ProcessorBenchmark {
+
+    private static final int OUTBOX_CAPACITY = 1 << 14;
+
+    private List<String> lines;
+    private List<String> words;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String firstBook = WordCountBenchmark.bookNames().get(0);
+        lines = new ArrayList<>();
+        try (Stream<String> bookLines = Files.lines(Books.bookPath(firstBook))) {
+            bookLines.forEach(lines::add);
+        }
+        words = new ArrayList<>();
+        Processor tokenize = new TokenizeP();
+        TestOutbox outbox = new TestOutbox(OUTBOX_CAPACITY);
+        tokenize.init(outbox, new TestProcessorContext());
+        TestInbox inbox = new TestInbox();
+        inbox.addAll(lines);
+        while (!inbox.isEmpty()) {
+            tokenize.process(0, inbox);
+            for (Object word : outbox.queue(0)) {
+                words.add((String) word);
+            }
+            outbox.queue(0).clear();
+            outbox.reset();
+        }
+    }
+
+    @Benchmark
+    public long tokenizeRegex() throws Exception {
+        Pattern delimiter = Pattern.compile("\\W+");
+        return run(flatMapP((String line) -> traverseArray(delimiter.split(line.toLowerCase()))
+                .filter(word -> !word.isEmpty())).get(), lines);
+    }
+
+    @Benchmark
+    public long tokenizeP() throws Exception {
+        return run(new TokenizeP(), lines);
+    }
+
+    @Benchmark
+    public long accumulateByKey() throws Exception {
+        return run(accumulateByKeyP(singletonList(wholeItem()), counting()).get(), words);
+    }
+
+    @Benchmark
+    public long accumulateWords() throws Exception {
+        return run(accumulateWordsP().get(), words);
+    }
+
+    /**
+     * Pushes the items through the processor and returns the number of the
+     * items it emitted.
+     */
+    private static long run(Processor processor, List<String> items) throws Exception {
+        TestOutbox outbox = new TestOutbox(OUTBOX_CAPACITY);
+        processor.init(outbox, new TestProcessorContext());
+        TestInbox inbox = new TestInbox();
+        inbox.addAll(items);
+        long emitted = 0;
+        while (!inbox.isEmpty()) {
+            processor.process(0, inbox);
+            emitted += drain(outbox);
+        }
+        boolean done;
+        do {
+            done = processor.complete();
+            emitted += drain(outbox);
+        } while (!done);
+        return emitted;
+    }
+
+    private static int drain(TestOutbox outbox) {
+        Queue<Object> queue = outbox.queue(0);
+        int size = queue.size();
+        queue.clear();
+        outbox.reset();
+        return size;
+    }
+}
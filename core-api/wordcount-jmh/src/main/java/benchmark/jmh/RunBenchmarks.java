@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmark.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wordcount.Books;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the word count benchmarks with the GC profiler, which also reports
+ * the allocation rate, and by default writes the results as JSON into {@code
+ * jmh-result.json} so they can be compared across runs. Any standard JMH
+ * command-line option can be passed, for example a regex that selects the
+ * benchmarks to run. Build the uberjar and run it from the {@code
+ * wordcount-jmh} directory:
+ * <pre>
+ * mvn package
+ * java -jar target/benchmarks.jar ProcessorBenchmark
+ * </pre>
+ * The uberjar contains the books and copies them to a temporary directory
+ * on startup, see {@link Books}. To benchmark another corpus, for example
+ * one written by {@code ZipfCorpusGenerator}, pass its directory in the
+ * {@value Books#BOOKS_DIR_PROPERTY} system property, which is passed on to
+ * the forked benchmark JVMs:
+ * <pre>
+ * java -Dbooks.dir=/tmp/zipf/books -jar target/benchmarks.jar
+ * </pre>
+ */
+public final class RunBenchmarks {
+
+    private RunBenchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        List<String> jvmArgs = new ArrayList<>();
+        jvmArgs.add("-Dhazelcast.logging.type=log4j");
+        String booksDir = System.getProperty(Books.BOOKS_DIR_PROPERTY);
+        if (booksDir != null) {
+            jvmArgs.add("-D" + Books.BOOKS_DIR_PROPERTY + '=' + booksDir);
+        }
+        builder.parent(cmdLine)
+               .addProfiler(GCProfiler.class)
+               .jvmArgsAppend(jvmArgs.toArray(new String[0]));
+        if (!cmdLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdLine.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        if (cmdLine.getIncludes().isEmpty()) {
+            builder.include(RunBenchmarks.class.getPackage().getName() + ".*Benchmark");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2008-2019, Hazelcast, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmark.jmh;
+
+import benchmark.WordCountJdk;
+import benchmark.WordCountSingleNode.SinkResults;
+import benchmark.WordCountSingleNode;
+import com.hazelcast.jet.Jet;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.config.InstanceConfig;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.jet.core.DAG;
+import com.hazelcast.jet.core.Vertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shared.TokenizeP;
+import wordcount.Books;
+import wordcount.CorpusCache;
+import wordcount.CountWordBytesP;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hazelcast.jet.core.Edge.between;
+import static com.hazelcast.jet.core.Partitioner.HASH_CODE;
+import static com.hazelcast.jet.core.processor.SinkProcessors.writeMapP;
+import static com.hazelcast.jet.function.Functions.entryKey;
+import static com.hazelcast.jet.function.Functions.wholeItem;
+import static java.lang.Runtime.getRuntime;
+import static wordcount.CountWordsP.accumulateWordsP;
+import static wordcount.CountWordsP.combineWordCountsP;
+import static wordcount.ReadBooksP.readBookChunksP;
+import static wordcount.ReadBooksP.readBooksP;
+
+/**
+ * Compares the end-to-end time of counting the words in all the books with
+ * the JDK parallel stream of {@link WordCountJdk}, the single-node Jet job
+ * of {@link WordCountSingleNode} and the two-member Jet job of {@code
+ * WordCountCoreApi}, the latter both with the default decode-then-split
+ * path and with the byte-level path that counts the words on the raw UTF-8
+ * bytes. The {@code Cached} variants read the books from a {@link
+ * CorpusCache} and measure the computation alone. Each run is a single shot, just like one {@code measure()} call in
+ * the original benchmarks, but now every benchmark runs in its own forked
+ * JVMs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 9)
+@Fork(3)
+public class WordCountBenchmark {
+
+    @Benchmark
+    public Map<String, Long> jdkStreams() {
+        return WordCountJdk.countWords();
+    }
+
+    @Benchmark
+    public Map<String, Long> jetSingleNode(SingleNode state) {
+        try (SinkResults results = new SinkResults()) {
+            state.jet.newJob(WordCountSingleNode.buildDag(results)).join();
+            return results.view();
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> jdkStreamsCached(Cached state) {
+        return WordCountJdk.countWords(state.cache.lines());
+    }
+
+    @Benchmark
+    public Map<String, Long> jetSingleNodeCached(SingleNode state, Cached cached) {
+        try (SinkResults results = new SinkResults()) {
+            state.jet.newJob(WordCountSingleNode.buildDag(results, cached.cache)).join();
+            return results.view();
+        }
+    }
+
+    @Benchmark
+    public void jetTwoMembers(TwoMembers state) {
+        state.jet.newJob(state.dag).join();
+    }
+
+    @Benchmark
+    public void jetTwoMembersByteLevel(TwoMembers state) {
+        state.jet.newJob(state.byteLevelDag).join();
+    }
+
+    /**
+     * A single Jet member with the default configuration, as in {@link
+     * WordCountSingleNode}.
+     */
+    @State(Scope.Benchmark)
+    public static class SingleNode {
+        JetInstance jet;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            jet = Jet.newJetInstance();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Jet.shutdownAll();
+        }
+    }
+
+    /**
+     * The books loaded into memory once per trial, so that the benchmarks
+     * using it measure the computation without the file I/O.
+     */
+    @State(Scope.Benchmark)
+    public static class Cached {
+        CorpusCache cache;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            cache = CorpusCache.of(bookNames());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            CorpusCache.clear();
+        }
+    }
+
+    /**
+     * Two Jet members, each with half the available processors, and the
+     * same DAG as in {@code WordCountCoreApi}.
+     */
+    @State(Scope.Benchmark)
+    public static class TwoMembers {
+        JetInstance jet;
+        DAG dag;
+        DAG byteLevelDag;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            JetConfig cfg = new JetConfig();
+            cfg.setInstanceConfig(new InstanceConfig().setCooperativeThreadCount(
+                    Math.max(1, getRuntime().availableProcessors() / 2)));
+            jet = Jet.newJetInstance(cfg);
+            Jet.newJetInstance(cfg);
+            dag = buildDag(bookNames());
+            byteLevelDag = buildByteLevelDag(bookNames());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Jet.shutdownAll();
+        }
+    }
+
+    static DAG buildDag(List<String> bookNames) {
+        DAG dag = new DAG();
+        Vertex source = dag.newVertex("source", readBooksP(bookNames));
+        Vertex tokenize = dag.newVertex("tokenize", TokenizeP::new);
+        Vertex accumulate = dag.newVertex("accumulate", accumulateWordsP());
+        Vertex combine = dag.newVertex("combine", combineWordCountsP());
+        Vertex sink = dag.newVertex("sink", writeMapP("counts"));
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, accumulate).partitioned(wholeItem(), HASH_CODE))
+                  .edge(between(accumulate, combine).distributed().partitioned(entryKey()))
+                  .edge(between(combine, sink));
+    }
+
+    static DAG buildByteLevelDag(List<String> bookNames) {
+        DAG dag = new DAG();
+        Vertex source = dag.newVertex("source", readBookChunksP(bookNames));
+        Vertex tokenize = dag.newVertex("tokenize", CountWordBytesP::new);
+        Vertex accumulate = dag.newVertex("accumulate", combineWordCountsP());
+        Vertex combine = dag.newVertex("combine", combineWordCountsP());
+        Vertex sink = dag.newVertex("sink", writeMapP("counts"));
+        return dag.edge(between(source, tokenize))
+                  .edge(between(tokenize, accumulate).partitioned(entryKey(), HASH_CODE))
+                  .edge(between(accumulate, combine).distributed().partitioned(entryKey()))
+                  .edge(between(combine, sink));
+    }
+
+    static List<String> bookNames() {
+        return Books.bookNames();
+    }
+}
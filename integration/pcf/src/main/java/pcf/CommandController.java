@@ -23,6 +23,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import shared.TokenizeP;
+import shared.WordTokenizer;
+import shared.WriteMapBatchedP;
 
 import java.util.List;
 import java.util.Map;
@@ -64,6 +67,9 @@ public class CommandController {
     public CommandResponse wordCount(@RequestParam(value = "sourceName") String sourceName,
                                      @RequestParam(value = "sinkName") String sinkName) {
         JobConfig jobConfig = new JobConfig();
+        jobConfig.addClass(TokenizeP.class, WordTokenizer.class, WriteMapBatchedP.class);
+        // the tokenizer's private nested Token class has to go along with it
+        jobConfig.addClass(WordTokenizer.class.getDeclaredClasses());
         jetClient.newJob(PipelineBuilder.buildPipeline(sourceName, sinkName), jobConfig).join();
         IMap<String, Long> counts = jetClient.getMap(sinkName);
         List<Map.Entry<String, Long>> topResult =
@@ -16,29 +16,32 @@
 
 package pcf;
 
-import com.hazelcast.jet.Traversers;
 import com.hazelcast.jet.pipeline.Pipeline;
 import com.hazelcast.jet.pipeline.Sinks;
 import com.hazelcast.jet.pipeline.Sources;
+import shared.TokenizeP;
 
-import java.util.regex.Pattern;
+import java.util.Map.Entry;
 
 import static com.hazelcast.jet.aggregate.AggregateOperations.counting;
 import static com.hazelcast.jet.function.Functions.wholeItem;
+import static shared.WriteMapBatchedP.writeMapBatchedP;
 
 public class PipelineBuilder {
 
-    public static Pipeline buildPipeline(String sourceName, String sinkName) {
-        Pattern pattern = Pattern.compile("\\W+");
+    private static final int SINK_BATCH_SIZE = 1024;
+    private static final long SINK_MAX_DELAY_MILLIS = 100;
 
+    public static Pipeline buildPipeline(String sourceName, String sinkName) {
         Pipeline pipeline = Pipeline.create();
 
         pipeline.drawFrom(Sources.<Integer, String>map(sourceName))
-                .flatMap(e -> Traversers.traverseArray(pattern.split(e.getValue().toLowerCase()))
-                                        .filter(w -> !w.isEmpty()))
+                .map(Entry::getValue)
+                .<String>customTransform("tokenize", TokenizeP::new)
                 .groupingKey(wholeItem())
                 .aggregate(counting())
-                .drainTo(Sinks.map(sinkName));
+                .drainTo(Sinks.fromProcessor("sink",
+                        writeMapBatchedP(sinkName, SINK_BATCH_SIZE, SINK_MAX_DELAY_MILLIS)));
 
         return pipeline;
     }